@@ -0,0 +1,89 @@
+package com.berkgokden.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Uncompressed lines of a byte range of a bz2 file
+ * A large file can be split into byte ranges processed by different workers,
+ * every line of the file is read by exactly one range.
+ *
+ * A range owns the bz2 blocks that start in it. Lines never match block boundaries, so
+ * a range skips its first line when it does not start at the beginning of the file,
+ * and reads past its last block until the end of the next line.
+ * A range that owns no blocks or no line start reads nothing.
+ */
+public class BZip2SplitInputStream extends InputStream {
+    private final ParallelBZip2InputStream in;
+    private final byte[] single = new byte[1];
+    private boolean skipping;
+    private boolean overflow;
+    private boolean ended;
+
+    /**
+     * BZip2SplitInputStream object constructor, blocks are inflated on the common pool
+     * @param in compressed bz2 data starting at offset
+     * @param offset position of the range in the file
+     * @param length length of the range in bytes
+     * @throws IOException when the bz2 header can not be read
+     */
+    public BZip2SplitInputStream(InputStream in, long offset, long length) throws IOException {
+        this.in = new ParallelBZip2InputStream(in, offset, length, ForkJoinPool.commonPool(),
+                2 * ForkJoinPool.commonPool().getParallelism());
+        this.skipping = offset > 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int n = read(single, 0, 1);
+        return n == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (skipping) {
+            int b = in.read();
+            if (b == -1) {
+                // no line starts in this range
+                ended = true;
+                return -1;
+            }
+            skipping = b != '\n';
+        }
+        if (ended) {
+            return -1;
+        }
+        if (!overflow) {
+            int n = in.read(buffer, offset, length);
+            if (n != -1) {
+                return n;
+            }
+            overflow = true;
+            in.readPastRange();
+        }
+        // finish the line that starts at the end of the range
+        int n = 0;
+        while (n < length) {
+            int b = in.read();
+            if (b == -1) {
+                ended = true;
+                break;
+            }
+            buffer[offset + n++] = (byte) b;
+            if (b == '\n') {
+                ended = true;
+                break;
+            }
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
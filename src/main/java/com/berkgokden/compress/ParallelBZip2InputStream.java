@@ -0,0 +1,540 @@
+package com.berkgokden.compress;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A bz2 decompressing InputStream that inflates blocks in parallel
+ * bzip2 blocks are independent, every block starts with a 48 bit magic number
+ * and ends where the next block or the end of stream marker starts.
+ *
+ * Compressed data is scanned bit by bit for block boundaries on the reading thread,
+ * every block is wrapped as a single block bz2 stream and inflated on a ForkJoinPool.
+ * At most maxInFlight blocks are scanned ahead, output is returned in block order.
+ *
+ * A block magic number can appear inside compressed data by chance,
+ * a block that fails to inflate is joined with the next one and inflated again.
+ * Output is same as BZip2CompressorInputStream, only the first bz2 stream is read
+ * and the stream CRC is checked at the end.
+ *
+ * A byte range of a file can be read too, ex.: a part of a split task.
+ * Blocks that start in the range are owned by the range and read() ends after them,
+ * readPastRange lets the reader continue with the following blocks.
+ * The first block of a range can start at a false magic number inside the last block
+ * of the previous range, it is dropped when joining does not inflate it.
+ * Stream CRC can not be checked for a range that does not start at the beginning.
+ */
+public class ParallelBZip2InputStream extends InputStream {
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_MAGIC = 0x177245385090L;
+    private static final long MAGIC_MASK = 0xffffffffffffL;
+    private static final int MAX_JOINS = 4;
+
+    private final InputStream in;
+    private final ForkJoinPool pool;
+    private final int maxInFlight;
+    private final int blockSizeLevel;
+    private final long endBit;
+    private final boolean verifyCrc;
+    private boolean pastRange;
+    private boolean rangeHead;
+    private final ArrayDeque<Pending> inFlight;
+
+    // scanner state
+    private final byte[] chunk;
+    private int chunkPosition;
+    private int chunkLength;
+    private byte[] raw;
+    private int rawLength;
+    private long rawStartBit;
+    private long bitPosition;
+    private long window;
+    private long blockStart;
+    private long endStart;
+    private int crcBitsLeft;
+    private int streamCrc;
+    private boolean ended;
+    private boolean inputEnded;
+
+    // output state
+    private byte[] block;
+    private int blockPosition;
+    private int combinedCrc;
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * ParallelBZip2InputStream object constructor, blocks are inflated on the common pool
+     * @param in compressed bz2 data
+     * @throws IOException when the bz2 header can not be read
+     */
+    public ParallelBZip2InputStream(InputStream in) throws IOException {
+        this(in, ForkJoinPool.commonPool(), 2 * ForkJoinPool.commonPool().getParallelism());
+    }
+
+    /**
+     * ParallelBZip2InputStream object constructor
+     * @param in compressed bz2 data
+     * @param pool pool that inflates blocks
+     * @param maxInFlight maximum number of blocks scanned ahead of the reader
+     * @throws IOException when the bz2 header can not be read
+     */
+    public ParallelBZip2InputStream(InputStream in, ForkJoinPool pool, int maxInFlight) throws IOException {
+        this(in, 0L, Long.MAX_VALUE, pool, maxInFlight);
+    }
+
+    /**
+     * ParallelBZip2InputStream object constructor for a byte range of a bz2 file
+     * @param in compressed bz2 data starting at offset
+     * @param offset position of the range in the file
+     * @param length length of the range in bytes
+     * @param pool pool that inflates blocks
+     * @param maxInFlight maximum number of blocks scanned ahead of the reader
+     * @throws IOException when the bz2 header can not be read
+     */
+    public ParallelBZip2InputStream(InputStream in, long offset, long length,
+                                    ForkJoinPool pool, int maxInFlight) throws IOException {
+        this.in = in;
+        this.pool = pool;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.inFlight = new ArrayDeque<>();
+        this.chunk = new byte[64 * 1024];
+        this.raw = new byte[1024 * 1024];
+        this.blockStart = -1L;
+        long end = offset + length;
+        this.endBit = end < 0 || end > Long.MAX_VALUE / 8 ? Long.MAX_VALUE : end * 8;
+        this.verifyCrc = offset == 0;
+        this.rangeHead = offset > 0;
+        if (offset == 0) {
+            this.blockSizeLevel = readHeader();
+        } else {
+            // header is not read, largest block size can hold any block
+            this.blockSizeLevel = 9;
+            this.rawStartBit = offset * 8;
+            this.bitPosition = offset * 8;
+        }
+    }
+
+    /**
+     * Lets read() go on with blocks after the range, ex.: to finish the last line of a range
+     */
+    public void readPastRange() {
+        pastRange = true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBlock()) {
+            return -1;
+        }
+        return block[blockPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!nextBlock()) {
+            return -1;
+        }
+        int n = Math.min(length, block.length - blockPosition);
+        System.arraycopy(block, blockPosition, buffer, offset, n);
+        blockPosition += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return block == null ? 0 : block.length - blockPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Pending pending : inFlight) {
+            pending.future.cancel(true);
+        }
+        inFlight.clear();
+        block = null;
+        in.close();
+    }
+
+    /**
+     * Makes sure there is unread output, blocks are inflated and taken in order
+     * @return false at the end of stream
+     */
+    private boolean nextBlock() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (block == null || blockPosition == block.length) {
+            if (finished) {
+                return false;
+            }
+            fill();
+            Pending head = inFlight.peekFirst();
+            if (head == null) {
+                finish();
+                return false;
+            }
+            if (!pastRange && head.segment.startBit >= endBit) {
+                return false;
+            }
+            inFlight.pollFirst();
+            Segment segment = head.segment;
+            byte[] output = await(head.future);
+            if (output == null && rangeHead) {
+                Pending joined = joinRangeHead(segment);
+                if (joined == null) {
+                    // data of the previous range, it reads past its range to inflate it
+                    rangeHead = false;
+                    continue;
+                }
+                segment = joined.segment;
+                output = await(joined.future);
+            }
+            rangeHead = false;
+            int joins = 0;
+            while (output == null) {
+                if (++joins > MAX_JOINS) {
+                    throw new IOException("BZip2 block can not be decompressed at bit " + segment.startBit);
+                }
+                segment = join(segment);
+                output = decode(segment);
+            }
+            combinedCrc = ((combinedCrc << 1) | (combinedCrc >>> 31)) ^ segment.crc;
+            block = output;
+            blockPosition = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Scans and submits blocks until maxInFlight blocks are in flight or stream ends
+     */
+    private void fill() throws IOException {
+        while (inFlight.size() < maxInFlight) {
+            Pending last = inFlight.peekLast();
+            if (!pastRange && last != null && last.segment.startBit >= endBit) {
+                // one block after the range is enough to finish the last line
+                return;
+            }
+            Segment segment = scan();
+            if (segment == null) {
+                return;
+            }
+            inFlight.addLast(new Pending(segment, pool.submit(() -> decode(segment))));
+        }
+    }
+
+    /**
+     * A failed block is a block split at a false magic number or ended at a false end marker,
+     * it is extended with the following compressed data.
+     */
+    private Segment join(Segment segment) throws IOException {
+        Pending next = inFlight.pollFirst();
+        if (next != null) {
+            next.future.cancel(true);
+            return segment.append(next.segment);
+        }
+        if (ended) {
+            // end marker was a part of compressed data, scanning goes on from there
+            ended = false;
+            Segment extended = scan();
+            if (extended == null) {
+                throw new IOException("BZip2 stream is truncated");
+            }
+            return extended;
+        }
+        Segment following = scan();
+        if (following == null) {
+            throw new IOException("BZip2 stream is truncated");
+        }
+        return segment.append(following);
+    }
+
+    /**
+     * Joins the first block of a range with the blocks in flight until it inflates,
+     * joined blocks are taken from the queue only when it inflates.
+     * @return joined block, null when it does not inflate and should be dropped
+     */
+    private Pending joinRangeHead(Segment segment) {
+        Segment joined = segment;
+        int joins = 0;
+        for (Pending next : inFlight) {
+            if (++joins > MAX_JOINS) {
+                return null;
+            }
+            joined = joined.append(next.segment);
+            byte[] output = decode(joined);
+            if (output != null) {
+                for (int i = 0; i < joins; i++) {
+                    inFlight.pollFirst().future.cancel(true);
+                }
+                return new Pending(joined, CompletableFuture.completedFuture(output));
+            }
+        }
+        return null;
+    }
+
+    private void finish() throws IOException {
+        finished = true;
+        if (!ended) {
+            throw new IOException("BZip2 stream is truncated");
+        }
+        if (verifyCrc && combinedCrc != streamCrc) {
+            throw new IOException("BZip2 CRC error");
+        }
+    }
+
+    private byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decompressing bz2 block");
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Inflates a block wrapped as a single block bz2 stream
+     * @return inflated data, null when the block is not valid
+     */
+    private byte[] decode(Segment segment) {
+        BitWriter writer = new BitWriter((int) (segment.bitLength >>> 3) + 16);
+        writer.write('B', 8);
+        writer.write('Z', 8);
+        writer.write('h', 8);
+        writer.write('0' + blockSizeLevel, 8);
+        writer.write(segment.bits, segment.bitLength);
+        writer.write(END_MAGIC, 48);
+        // combined crc of a single block stream is the block crc
+        writer.write(segment.crc & 0xffffffffL, 32);
+        try (InputStream blockIn = new BZip2CompressorInputStream(new ByteArrayInputStream(writer.toByteArray()))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 1024);
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = blockIn.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private int readHeader() throws IOException {
+        int b = in.read();
+        int z = in.read();
+        int h = in.read();
+        int level = in.read();
+        if (b != 'B' || z != 'Z' || h != 'h' || level < '1' || level > '9') {
+            throw new IOException("Stream is not in the BZip2 format");
+        }
+        rawStartBit = 32L;
+        bitPosition = 32L;
+        return level - '0';
+    }
+
+    /**
+     * Reads compressed data until the next block boundary
+     * @return compressed bits of the next block, null after end of stream
+     */
+    private Segment scan() throws IOException {
+        while (!ended) {
+            if (chunkPosition == chunkLength) {
+                chunkLength = inputEnded ? -1 : in.read(chunk);
+                chunkPosition = 0;
+                if (chunkLength <= 0) {
+                    chunkLength = 0;
+                    inputEnded = true;
+                    return null;
+                }
+            }
+            int value = chunk[chunkPosition++] & 0xff;
+            appendRaw(value);
+            Segment segment = null;
+            for (int k = 7; k >= 0; k--) {
+                int bit = (value >>> k) & 1;
+                window = ((window << 1) | bit) & MAGIC_MASK;
+                bitPosition++;
+                if (ended) {
+                    // padding after the stream crc, kept in window in case scanning is resumed
+                    continue;
+                } else if (crcBitsLeft > 0) {
+                    streamCrc = (streamCrc << 1) | bit;
+                    if (--crcBitsLeft == 0) {
+                        ended = true;
+                        if (blockStart >= 0) {
+                            segment = extract(blockStart, endStart);
+                        }
+                    }
+                } else if (window == BLOCK_MAGIC) {
+                    long start = bitPosition - 48;
+                    if (blockStart >= 0) {
+                        segment = extract(blockStart, start);
+                    }
+                    blockStart = start;
+                    discardBefore(start);
+                } else if (window == END_MAGIC) {
+                    endStart = bitPosition - 48;
+                    crcBitsLeft = 32;
+                    streamCrc = 0;
+                }
+            }
+            if (segment != null) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    private void appendRaw(int value) {
+        if (rawLength == raw.length) {
+            raw = Arrays.copyOf(raw, raw.length * 2);
+        }
+        raw[rawLength++] = (byte) value;
+    }
+
+    private void discardBefore(long bit) {
+        int bytes = (int) ((bit - rawStartBit) >>> 3);
+        System.arraycopy(raw, bytes, raw, 0, rawLength - bytes);
+        rawLength -= bytes;
+        rawStartBit += 8L * bytes;
+    }
+
+    /**
+     * Copies bits [from, to) of compressed data into a left aligned array
+     */
+    private Segment extract(long from, long to) {
+        long bitLength = to - from;
+        int offset = (int) (from - rawStartBit);
+        int first = offset >>> 3;
+        int shift = offset & 7;
+        byte[] bits = new byte[(int) ((bitLength + 7) >>> 3)];
+        for (int i = 0; i < bits.length; i++) {
+            int high = (raw[first + i] & 0xff) << shift;
+            int low = first + i + 1 < rawLength ? (raw[first + i + 1] & 0xff) >>> (8 - shift) : 0;
+            bits[i] = (byte) (high | low);
+        }
+        int tail = (int) (bitLength & 7);
+        if (tail != 0) {
+            bits[bits.length - 1] &= (byte) (0xff << (8 - tail));
+        }
+        int crc = 0;
+        for (int i = 6; i < 10 && i < bits.length; i++) {
+            crc = (crc << 8) | (bits[i] & 0xff);
+        }
+        return new Segment(from, bits, bitLength, crc);
+    }
+
+    /**
+     * Compressed bits of a block, starting with the block magic number
+     */
+    private static class Segment {
+        private final long startBit;
+        private final byte[] bits;
+        private final long bitLength;
+        private final int crc;
+
+        private Segment(long startBit, byte[] bits, long bitLength, int crc) {
+            this.startBit = startBit;
+            this.bits = bits;
+            this.bitLength = bitLength;
+            this.crc = crc;
+        }
+
+        private Segment append(Segment next) {
+            BitWriter writer = new BitWriter(bits.length + next.bits.length);
+            writer.write(bits, bitLength);
+            writer.write(next.bits, next.bitLength);
+            return new Segment(startBit, writer.toByteArray(), bitLength + next.bitLength, crc);
+        }
+    }
+
+    private static class Pending {
+        private final Segment segment;
+        private final Future<byte[]> future;
+
+        private Pending(Segment segment, Future<byte[]> future) {
+            this.segment = segment;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Writes values bit by bit, most significant bit first
+     */
+    private static class BitWriter {
+        private byte[] buffer;
+        private int length;
+        private long accumulator;
+        private int accumulatorBits;
+
+        private BitWriter(int capacity) {
+            this.buffer = new byte[Math.max(16, capacity)];
+        }
+
+        private void write(long value, int count) {
+            accumulator = (accumulator << count) | (value & ((1L << count) - 1));
+            accumulatorBits += count;
+            while (accumulatorBits >= 8) {
+                accumulatorBits -= 8;
+                put((int) (accumulator >>> accumulatorBits));
+            }
+        }
+
+        private void write(byte[] bits, long bitLength) {
+            int whole = (int) (bitLength >>> 3);
+            if (accumulatorBits == 0) {
+                ensure(whole);
+                System.arraycopy(bits, 0, buffer, length, whole);
+                length += whole;
+            } else {
+                for (int i = 0; i < whole; i++) {
+                    write(bits[i] & 0xff, 8);
+                }
+            }
+            int tail = (int) (bitLength & 7);
+            if (tail != 0) {
+                write((bits[whole] & 0xff) >>> (8 - tail), tail);
+            }
+        }
+
+        private byte[] toByteArray() {
+            if (accumulatorBits > 0) {
+                put((int) (accumulator << (8 - accumulatorBits)));
+                accumulatorBits = 0;
+            }
+            return Arrays.copyOf(buffer, length);
+        }
+
+        private void put(int value) {
+            ensure(1);
+            buffer[length++] = (byte) value;
+        }
+
+        private void ensure(int count) {
+            if (length + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+            }
+        }
+    }
+}
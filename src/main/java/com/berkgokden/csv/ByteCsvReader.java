@@ -0,0 +1,136 @@
+package com.berkgokden.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A csv reader that splits lines into fields directly on bytes
+ * There is no charset decoding and no String per field, see ByteCsvRecord.
+ *
+ * Format is same as CSVFormat.newFormat(delimiter) of commons-csv:
+ * no quotes and no escapes, lines end with \n, \r or \r\n
+ * and an empty line is a record with a single empty field.
+ * Delimiter should be an ascii character.
+ */
+public class ByteCsvReader {
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private final InputStream in;
+    private final byte delimiter;
+    private final ByteCsvRecord record;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean eof;
+    private long recordNumber;
+
+    /**
+     * ByteCsvReader object constructor
+     * @param in csv data, it is not closed by this reader
+     * @param delimiter field delimiter ex.: ';'
+     */
+    public ByteCsvReader(InputStream in, char delimiter) {
+        this(in, delimiter, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * ByteCsvReader object constructor
+     * @param in csv data, it is not closed by this reader
+     * @param delimiter field delimiter ex.: ';'
+     * @param bufferSize initial buffer size, buffer grows for longer lines
+     */
+    public ByteCsvReader(InputStream in, char delimiter, int bufferSize) {
+        if (delimiter > 0x7f) {
+            throw new IllegalArgumentException("Delimiter should be an ascii character: " + delimiter);
+        }
+        this.in = in;
+        this.delimiter = (byte) delimiter;
+        this.record = new ByteCsvRecord();
+        this.buffer = new byte[Math.max(16, bufferSize)];
+    }
+
+    /**
+     * ByteCsvReader object constructor for data already in memory
+     * Lines are read in place, data is not copied.
+     * @param data csv data
+     * @param offset position of the first byte
+     * @param length number of bytes
+     * @param delimiter field delimiter ex.: ';'
+     */
+    public ByteCsvReader(byte[] data, int offset, int length, char delimiter) {
+        if (delimiter > 0x7f) {
+            throw new IllegalArgumentException("Delimiter should be an ascii character: " + delimiter);
+        }
+        this.in = null;
+        this.delimiter = (byte) delimiter;
+        this.record = new ByteCsvRecord();
+        this.buffer = data;
+        this.position = offset;
+        this.limit = offset + length;
+        this.eof = true;
+    }
+
+    /**
+     * Reads next line
+     * @return the reused record holding the next line, null at the end of data
+     * @throws IOException when data can not be read
+     */
+    public ByteCsvRecord next() throws IOException {
+        int scan = position;
+        while (true) {
+            for (; scan < limit; scan++) {
+                byte b = buffer[scan];
+                if (b == '\n' || b == '\r') {
+                    if (b == '\r' && scan + 1 == limit && !eof) {
+                        // \r\n may be split between two reads, \r is scanned again
+                        scan = fill(scan) - 1;
+                        continue;
+                    }
+                    int lineEnd = scan;
+                    int next = scan + 1;
+                    if (b == '\r' && next < limit && buffer[next] == '\n') {
+                        next++;
+                    }
+                    return emit(lineEnd, next);
+                }
+            }
+            if (eof) {
+                if (position < limit) {
+                    return emit(limit, limit);
+                }
+                return null;
+            }
+            scan = fill(scan);
+        }
+    }
+
+    private ByteCsvRecord emit(int lineEnd, int next) {
+        record.set(buffer, position, lineEnd, delimiter, ++recordNumber);
+        position = next;
+        return record;
+    }
+
+    /**
+     * Moves the unread part to the start of buffer and reads more data
+     * @return scan position after the move
+     */
+    private int fill(int scan) throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            scan -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int n = in.read(buffer, limit, buffer.length - limit);
+        if (n == -1) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+        return scan;
+    }
+}
@@ -0,0 +1,236 @@
+package com.berkgokden.csv;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A csv line as field offsets in a byte buffer
+ * Fields are read in place, a String is created only when a value is asked as String.
+ * Values are trimmed like String.trim, leading and trailing bytes up to space are ignored.
+ *
+ * Line is split into fields lazily, only up to the last field asked,
+ * so fields after the needed ones and lines skipped early are never scanned.
+ *
+ * A record is reused by ByteCsvReader for every line,
+ * it is valid only until the next line is read.
+ */
+public class ByteCsvRecord {
+    private byte[] buffer;
+    private int[] starts;
+    private int[] ends;
+    private int count;
+    private int next;
+    private int lineEnd;
+    private boolean complete;
+    private byte delimiter;
+    private long recordNumber;
+
+    ByteCsvRecord() {
+        this.starts = new int[128];
+        this.ends = new int[128];
+    }
+
+    /**
+     * Sets the line, called by ByteCsvReader
+     */
+    void set(byte[] buffer, int start, int end, byte delimiter, long recordNumber) {
+        this.buffer = buffer;
+        this.recordNumber = recordNumber;
+        this.delimiter = delimiter;
+        this.next = start;
+        this.lineEnd = end;
+        this.count = 0;
+        this.complete = false;
+    }
+
+    /**
+     * Splits fields until field i is found or line ends
+     */
+    private void split(int i) {
+        while (count <= i && !complete) {
+            int fieldStart = next;
+            int position = fieldStart;
+            while (position < lineEnd && buffer[position] != delimiter) {
+                position++;
+            }
+            addField(fieldStart, position);
+            if (position == lineEnd) {
+                complete = true;
+            } else {
+                next = position + 1;
+            }
+        }
+    }
+
+    private void addField(int start, int end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        // trim like String.trim
+        while (start < end && (buffer[start] & 0xff) <= ' ') {
+            start++;
+        }
+        while (end > start && (buffer[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    /**
+     * Checks if the line has a field without splitting the rest of the line
+     * @param i field index
+     * @return true when line has at least i + 1 fields
+     */
+    public boolean has(int i) {
+        split(i);
+        return i >= 0 && i < count;
+    }
+
+    /**
+     * @return number of fields in the line
+     */
+    public int size() {
+        split(Integer.MAX_VALUE - 1);
+        return count;
+    }
+
+    /**
+     * @return number of the line in the file starting from 1
+     */
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @param i field index
+     * @return position of the first byte of the trimmed field in getBuffer
+     */
+    public int getStart(int i) {
+        check(i);
+        return starts[i];
+    }
+
+    /**
+     * @param i field index
+     * @return position after the last byte of the trimmed field in getBuffer
+     */
+    public int getEnd(int i) {
+        check(i);
+        return ends[i];
+    }
+
+    /**
+     * @param i field index
+     * @return length of the trimmed field
+     */
+    public int getLength(int i) {
+        check(i);
+        return ends[i] - starts[i];
+    }
+
+    /**
+     * @param i field index
+     * @return trimmed field as String
+     */
+    public String getString(int i) {
+        check(i);
+        return new String(buffer, starts[i], ends[i] - starts[i], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares a trimmed field with an ascii text without creating a String
+     * @param i field index
+     * @param ascii expected value
+     * @return true when field has the same value
+     */
+    public boolean equalsAscii(int i, String ascii) {
+        check(i);
+        int length = ends[i] - starts[i];
+        if (length != ascii.length()) {
+            return false;
+        }
+        for (int k = 0; k < length; k++) {
+            if (buffer[starts[i] + k] != ascii.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Calculates hash of a trimmed field without creating a String
+     * @param i field index
+     * @return same value as hashCode of getString for ascii fields
+     */
+    public int hashAscii(int i) {
+        check(i);
+        int hash = 0;
+        for (int position = starts[i]; position < ends[i]; position++) {
+            hash = 31 * hash + (buffer[position] & 0xff);
+        }
+        return hash;
+    }
+
+    /**
+     * Checks if a trimmed field is an int as accepted by Integer.parseInt
+     * @param i field index
+     * @return true when field is an optional sign and digits that fit in an int
+     */
+    public boolean isInt(int i) {
+        check(i);
+        int position = starts[i];
+        int end = ends[i];
+        if (position < end && (buffer[position] == '-' || buffer[position] == '+')) {
+            position++;
+        }
+        if (position == end) {
+            return false;
+        }
+        long value = 0;
+        for (; position < end; position++) {
+            int digit = buffer[position] - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            value = value * 10 + digit;
+            if (value > 1L + Integer.MAX_VALUE) {
+                return false;
+            }
+        }
+        return buffer[starts[i]] == '-' || value <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Reads a trimmed field as int, field should be checked with isInt first
+     * @param i field index
+     * @return value of the field
+     */
+    public int getInt(int i) {
+        check(i);
+        int position = starts[i];
+        int end = ends[i];
+        boolean negative = buffer[position] == '-';
+        if (negative || buffer[position] == '+') {
+            position++;
+        }
+        long value = 0;
+        for (; position < end; position++) {
+            value = value * 10 + (buffer[position] - '0');
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    private void check(int i) {
+        if (!has(i)) {
+            throw new IllegalArgumentException("Index " + i + " but record " + recordNumber
+                    + " only has " + size() + " values!");
+        }
+    }
+}
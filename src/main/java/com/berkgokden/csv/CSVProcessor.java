@@ -5,6 +5,14 @@ import org.apache.commons.csv.CSVRecord;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 
 import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -29,8 +37,26 @@ public class CSVProcessor {
                                       Class<? extends Enum<?>> headerEnum,
                                       Function<CSVRecord, IndexableContent> parserFunction,
                                       Consumer<IndexableContent> consumer) throws IOException {
-        InputStream fin = new ByteArrayInputStream(rawCSV);
-        Reader in = new BufferedReader(new InputStreamReader(fin));
+        processCSVdata(new ByteArrayInputStream(rawCSV), delimiter, headerEnum, parserFunction, consumer);
+    }
+
+    /**
+     * This metod parses a given stream as csv with given variables
+     * Records are read one by one so consumer gets the first record
+     * before the stream is read completely.
+     * @param rawCSV csv file content as InputStream, it is not closed by this method
+     * @param delimiter csv file delimiter ex.: ";"
+     * @param headerEnum Headers class of CSV file.
+     * @param parserFunction function to add special logic
+     * @param consumer a consumer function can be added to use processed data
+     * @throws IOException io exception can help container to retry.
+     */
+    public static void processCSVdata(InputStream rawCSV,
+                                      char delimiter,
+                                      Class<? extends Enum<?>> headerEnum,
+                                      Function<CSVRecord, IndexableContent> parserFunction,
+                                      Consumer<IndexableContent> consumer) throws IOException {
+        Reader in = new BufferedReader(new InputStreamReader(rawCSV));
         Iterable<CSVRecord> records = CSVFormat.newFormat(delimiter).withHeader(headerEnum).parse(in);
         for (CSVRecord record : records) {
             IndexableContent indexableContent = parserFunction.apply(record);
@@ -39,4 +65,141 @@ public class CSVProcessor {
             }
         }
     }
+
+    /**
+     * This metod parses a given stream as csv directly on bytes
+     * Lines are split into fields without charset decoding or a String per field,
+     * see ByteCsvReader for the supported format.
+     * @param rawCSV csv file content as InputStream, it is not closed by this method
+     * @param delimiter csv file delimiter ex.: ";"
+     * @param parserFunction function to add special logic, record is reused for every line
+     * @param consumer a consumer function can be added to use processed data
+     * @throws IOException io exception can help container to retry.
+     */
+    public static void processCSVdata(InputStream rawCSV,
+                                      char delimiter,
+                                      Function<ByteCsvRecord, IndexableContent> parserFunction,
+                                      Consumer<IndexableContent> consumer) throws IOException {
+        ByteCsvReader reader = new ByteCsvReader(rawCSV, delimiter);
+        ByteCsvRecord record;
+        while ((record = reader.next()) != null) {
+            IndexableContent indexableContent = parserFunction.apply(record);
+            if (indexableContent != null) { // skip line when null ex.: header
+                consumer.accept(indexableContent);
+            }
+        }
+    }
+
+    /**
+     * This metod parses a given stream as csv in parallel
+     * Stream is read in chunks ending at a line end, every chunk is parsed on the pool
+     * and its documents are passed to batchConsumer as a batch from the parsing thread,
+     * so batchConsumer should be thread safe. Order of batches is not kept.
+     * When parsing fails, chunks already parsing are waited so no batch is passed after this method fails.
+     * Lines should end with \n, a file with only \r line ends is parsed as a single chunk.
+     * @param rawCSV csv file content as InputStream, it is not closed by this method
+     * @param delimiter csv file delimiter ex.: ";"
+     * @param parserFunction function to add special logic, record is reused for every line of a chunk
+     * @param batchConsumer a consumer function to use documents of a chunk
+     * @param pool pool parsing chunks, batchConsumer may block on it so it should not be shared
+     *             with work the consumer waits for, ex.: decompression of the stream on the common pool
+     * @param chunkSize bytes in a chunk, a chunk is longer when a line does not fit.
+     *                  Up to 2 x pool parallelism chunks are held by a call, ex.: 64 MB for 8 threads
+     *                  and 4 MB chunks, and documents of every batch waiting in batchConsumer are held too.
+     * @throws IOException io exception can help container to retry.
+     */
+    public static void processCSVdata(InputStream rawCSV,
+                                      char delimiter,
+                                      Function<ByteCsvRecord, IndexableContent> parserFunction,
+                                      Consumer<List<IndexableContent>> batchConsumer,
+                                      ForkJoinPool pool,
+                                      int chunkSize) throws IOException {
+        // memory held by a call is maxInFlight x chunkSize, see chunkSize
+        int maxInFlight = 2 * pool.getParallelism();
+        Deque<ForkJoinTask<?>> inFlight = new ArrayDeque<>();
+        AtomicBoolean stopped = new AtomicBoolean();
+        byte[] chunk = new byte[chunkSize];
+        int length = 0;
+        boolean eof = false;
+        try {
+            while (!eof) {
+                int n = rawCSV.read(chunk, length, chunk.length - length);
+                if (n == -1) {
+                    eof = true;
+                } else {
+                    length += n;
+                    if (length < chunk.length) {
+                        continue;
+                    }
+                }
+                int end = eof ? length : lastLineEnd(chunk, length);
+                if (end == 0) {
+                    if (!eof) {
+                        // a line longer than a chunk
+                        chunk = Arrays.copyOf(chunk, chunk.length * 2);
+                    }
+                    continue;
+                }
+                byte[] data = chunk;
+                int dataLength = end;
+                inFlight.add(pool.submit(() -> parseChunk(data, dataLength, delimiter,
+                        parserFunction, batchConsumer, stopped)));
+                // rest of the last line starts the next chunk
+                chunk = new byte[Math.max(chunkSize, 2 * (length - end))];
+                System.arraycopy(data, end, chunk, 0, length - end);
+                length -= end;
+                while (inFlight.size() >= maxInFlight) {
+                    inFlight.poll().join();
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                inFlight.poll().join();
+            }
+        } catch (IOException | RuntimeException e) {
+            // cancel does not stop a running chunk, chunks check stopped and are waited
+            stopped.set(true);
+            for (ForkJoinTask<?> task : inFlight) {
+                task.quietlyJoin();
+            }
+            throw e;
+        }
+    }
+
+    private static void parseChunk(byte[] data, int length, char delimiter,
+                                   Function<ByteCsvRecord, IndexableContent> parserFunction,
+                                   Consumer<List<IndexableContent>> batchConsumer,
+                                   AtomicBoolean stopped) {
+        if (stopped.get()) {
+            return;
+        }
+        List<IndexableContent> documents = new ArrayList<>();
+        ByteCsvReader reader = new ByteCsvReader(data, 0, length, delimiter);
+        ByteCsvRecord record;
+        try {
+            while ((record = reader.next()) != null) {
+                IndexableContent indexableContent = parserFunction.apply(record);
+                if (indexableContent != null) { // skip line when null ex.: header
+                    documents.add(indexableContent);
+                }
+            }
+        } catch (IOException e) {
+            // data is in memory, reading does not fail
+            throw new UncheckedIOException(e);
+        }
+        if (!documents.isEmpty() && !stopped.get()) {
+            batchConsumer.accept(documents);
+        }
+    }
+
+    /**
+     * @return position after the last \n or 0 when there is none
+     */
+    private static int lastLineEnd(byte[] data, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (data[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
 }
@@ -3,71 +3,224 @@ package com.berkgokden.csv;
 import org.apache.log4j.Logger;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentGenerator;
+import org.elasticsearch.common.xcontent.XContentType;
 
 import java.io.IOException;
-
-import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import java.util.Arrays;
 
 
 /**
  * A class to create and hold data to read/write elasticsearch
  *
- * TODO: refactor this class to rebuild create content only when getContent called
+ * Fields are only collected when added, content is created when getContent is called
+ * or fields are written directly to a bulk request, see BulkBuffer.
+ * Numbers are kept as primitives so adding a field does not box the value.
  */
 public class IndexableContent {
     private static final Logger logger = Logger.getLogger(IndexableContent.class.getName());
+
+    public static final byte STRING = 0;
+    public static final byte INTEGER = 1;
+    public static final byte LONG = 2;
+
     private String id;
-    private XContentBuilder contentBuilder;
     private String index;
     private String type;
     private BytesReference content;
+    private long contentHash;
+    private IndexingCompletion completion;
+
+    private String[] keys;
+    private byte[] types;
+    private String[] strings;
+    private long[] numbers;
+    private int size;
 
     /**
-     * Constructor automatically initialises contentbuilder
+     * IndexableContent object constructor
      */
     public IndexableContent() {
-        try {
-            this.contentBuilder = jsonBuilder().startObject();
-        } catch (IOException e) {
-            logger.error("Content Builder initialization failed: ", e);
-        }
+        this.keys = new String[16];
+        this.types = new byte[16];
+        this.strings = new String[16];
+        this.numbers = new long[16];
     }
 
+    /**
+     * Creates json content of fields, result is cached
+     * @return json content or null when it can not be created
+     */
     public BytesReference getContent() {
-        if (this.content != null) {
-            return this.content;
+        if (this.content == null) {
+            this.content = getContent(XContentType.JSON);
         }
+        return this.content;
+    }
+
+    /**
+     * Creates content of fields in the given format
+     * @param contentType JSON, SMILE, CBOR or YAML
+     * @return content or null when it can not be created
+     */
+    public BytesReference getContent(XContentType contentType) {
         try {
-            this.contentBuilder = this.contentBuilder.endObject();
+            XContentBuilder contentBuilder = XContentFactory.contentBuilder(contentType);
+            writeTo(contentBuilder.generator());
+            return contentBuilder.bytes();
         } catch (IOException e) {
             logger.error("Content Builder object creation failed.", e);
             return null;
         }
-        this.content = this.contentBuilder.bytes();
-        return this.content;
     }
 
-    public void add(String key, String value) {
-        try {
-            this.contentBuilder = this.contentBuilder.field(key, value);
-        } catch (IOException e) {
-            logger.error("Content Builder field creation failed: ", e);
+    /**
+     * Writes fields as an object
+     * @param generator generator of any content type
+     * @throws IOException when generator fails to write
+     */
+    public void writeTo(XContentGenerator generator) throws IOException {
+        generator.writeStartObject();
+        for (int i = 0; i < size; i++) {
+            generator.writeFieldName(keys[i]);
+            switch (types[i]) {
+                case INTEGER:
+                    generator.writeNumber((int) numbers[i]);
+                    break;
+                case LONG:
+                    generator.writeNumber(numbers[i]);
+                    break;
+                default:
+                    if (strings[i] == null) {
+                        generator.writeNull();
+                    } else {
+                        generator.writeString(strings[i]);
+                    }
+            }
         }
+        generator.writeEndObject();
+    }
+
+    public void add(String key, String value) {
+        int i = next(key, STRING);
+        strings[i] = value;
+    }
+
+    public void add(String key, int value) {
+        int i = next(key, INTEGER);
+        numbers[i] = value;
+    }
+
+    public void add(String key, long value) {
+        int i = next(key, LONG);
+        numbers[i] = value;
     }
 
+    /**
+     * Adds a boxed number, null is added as a null field
+     */
     public void add(String key, Integer value) {
-        try {
-            this.contentBuilder = this.contentBuilder.field(key, value);
-        } catch (IOException e) {
-            logger.error("Content Builder field creation failed: ", e);
+        if (value == null) {
+            add(key, (String) null);
+            return;
         }
+        add(key, value.intValue());
     }
 
+    /**
+     * Adds a boxed number, null is added as a null field
+     */
     public void add(String key, Long value) {
-        try {
-            this.contentBuilder = this.contentBuilder.field(key, value);
-        } catch (IOException e) {
-            logger.error("Content Builder field creation failed: ", e);
+        if (value == null) {
+            add(key, (String) null);
+            return;
+        }
+        add(key, value.longValue());
+    }
+
+    private int next(String key, byte fieldType) {
+        if (size == keys.length) {
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            types = Arrays.copyOf(types, capacity);
+            strings = Arrays.copyOf(strings, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+        }
+        content = null;
+        keys[size] = key;
+        types[size] = fieldType;
+        return size++;
+    }
+
+    /**
+     * @return number of fields added
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i field index in order of adding
+     * @return field name
+     */
+    public String getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * @param i field index in order of adding
+     * @return STRING, INTEGER or LONG
+     */
+    public byte getFieldType(int i) {
+        return types[i];
+    }
+
+    /**
+     * @param i field index in order of adding
+     * @return value of a STRING field, can be null
+     */
+    public String getString(int i) {
+        return strings[i];
+    }
+
+    /**
+     * @param i field index in order of adding
+     * @return value of an INTEGER or LONG field
+     */
+    public long getNumber(int i) {
+        return numbers[i];
+    }
+
+    /**
+     * @return hash of fields set before indexing, see ContentHashIndex
+     */
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(long contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return tracker of the source file of this document, null when it is not tracked
+     */
+    public IndexingCompletion getCompletion() {
+        return completion;
+    }
+
+    public void setCompletion(IndexingCompletion completion) {
+        this.completion = completion;
+    }
+
+    /**
+     * Reports result of indexing to the completion of source file when there is one
+     * @param success true when document is indexed
+     */
+    public void indexed(boolean success) {
+        if (completion != null) {
+            completion.done(success);
         }
     }
 
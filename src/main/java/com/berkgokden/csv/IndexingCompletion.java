@@ -0,0 +1,64 @@
+package com.berkgokden.csv;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A helper class to track documents of a source file until all of them are indexed
+ * Every document tagged with a completion is counted with add before it is handed to the indexer
+ * and reported with done when its bulk item succeeds or fails.
+ * Future completes after seal is called and every added document is reported,
+ * with true when all of them are indexed.
+ */
+public class IndexingCompletion {
+    private final CompletableFuture<Boolean> future;
+    // counts seal and every document not reported yet
+    private final AtomicInteger pending;
+    private volatile boolean failed;
+
+    /**
+     * IndexingCompletion object constructor
+     */
+    public IndexingCompletion() {
+        this.future = new CompletableFuture<>();
+        this.pending = new AtomicInteger(1);
+    }
+
+    /**
+     * Counts a document before it is handed to the indexer
+     */
+    public void add() {
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Reports result of a counted document
+     * @param success true when document is indexed
+     */
+    public void done(boolean success) {
+        if (!success) {
+            failed = true;
+        }
+        release();
+    }
+
+    /**
+     * Called when no more documents will be added
+     */
+    public void seal() {
+        release();
+    }
+
+    /**
+     * @return future completed with true when all documents are indexed, false when any of them failed
+     */
+    public CompletableFuture<Boolean> getFuture() {
+        return future;
+    }
+
+    private void release() {
+        if (pending.decrementAndGet() == 0) {
+            future.complete(!failed);
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package com.berkgokden.csv.parsers;
 
+import com.berkgokden.csv.ByteCsvRecord;
 import com.berkgokden.csv.IndexableContent;
 import org.apache.commons.csv.CSVRecord;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.time.format.ResolverStyle;
 
 /**
  * WeatherParser can be used in conjunction with CSVProcessor Class
@@ -78,6 +81,36 @@ public class WeatherParser {
         PX140, PX155,
     }
 
+    private static final Headers[] HEADERS = Headers.values();
+    // all the field names are converted to lowercase to simplify querying process
+    private static final String[] KEYS = new String[HEADERS.length];
+    static {
+        for (Headers header : HEADERS) {
+            KEYS[header.ordinal()] = header.name().toLowerCase();
+        }
+    }
+    // strict so an invalid date like 2015-02-30 fails instead of becoming 2015-02-28
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("uuuu-MM-dd|HH:mm")
+            .withResolverStyle(ResolverStyle.STRICT);
+    private static final long SECONDS_PER_DAY = 86400L;
+    private static final long SECONDS_PER_HOUR = 3600L;
+
+    /**
+     * Last converted date, all lines of a file mostly have the same date
+     * It is replaced as a whole so threads never see a date with the epoch day of another one.
+     */
+    private static volatile EpochDay lastEpochDay = new EpochDay(19700101, 0L);
+
+    private static class EpochDay {
+        private final int date;
+        private final long epochDay;
+
+        private EpochDay(int date, long epochDay) {
+            this.date = date;
+            this.epochDay = epochDay;
+        }
+    }
+
     /**
      * A helper function to convert string date and time information to unixtime
      * unix time is easier to use when comparing time related information.
@@ -90,11 +123,100 @@ public class WeatherParser {
     private static long convertDateToUnixtime(String date, String time, String leadtime) {
         String formatted = date.trim()+"|"+time.trim();
         LocalDateTime dateTime = LocalDateTime
-                .parse(formatted, DateTimeFormatter.ofPattern("yyyy-MM-dd|HH:mm"));
+                .parse(formatted, DATE_TIME_FORMATTER);
         dateTime = dateTime.plusHours(Long.parseLong(leadtime.trim())/100L);
         return dateTime.toEpochSecond(ZoneOffset.UTC);
     }
 
+    /**
+     * Same as convertDateToUnixtime but reads date, time and leadtime fields in place
+     * Values not in the expected format are passed to convertDateToUnixtime
+     * so errors are same for both parse methods.
+     */
+    private static long convertDateToUnixtime(ByteCsvRecord record) {
+        int dateIndex = Headers.DATE.ordinal();
+        int timeIndex = Headers.TIME.ordinal();
+        int leadtimeIndex = Headers.LEADTIME.ordinal();
+        byte[] buffer = record.getBuffer();
+        int d = record.getStart(dateIndex);
+        int t = record.getStart(timeIndex);
+        if (record.getLength(dateIndex) == 10 && buffer[d + 4] == '-' && buffer[d + 7] == '-'
+                && record.getLength(timeIndex) == 5 && buffer[t + 2] == ':'
+                && record.isInt(leadtimeIndex)) {
+            int year = digits(buffer, d, 4);
+            int month = digits(buffer, d + 5, 2);
+            int day = digits(buffer, d + 8, 2);
+            int hour = digits(buffer, t, 2);
+            int minute = digits(buffer, t + 3, 2);
+            if (year >= 0 && month >= 0 && day >= 0 && hour >= 0 && hour < 24 && minute >= 0 && minute < 60) {
+                return epochDay(year, month, day) * SECONDS_PER_DAY
+                        + hour * SECONDS_PER_HOUR + minute * 60L
+                        + record.getInt(leadtimeIndex) / 100 * SECONDS_PER_HOUR;
+            }
+        }
+        return convertDateToUnixtime(record.getString(dateIndex),
+                record.getString(timeIndex),
+                record.getString(leadtimeIndex));
+    }
+
+    /**
+     * @return value of count ascii digits or -1 when there is a non digit
+     */
+    private static int digits(byte[] buffer, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Converts a date to days since 1970-01-01, last result is reused for the same date
+     * Invalid dates like 2015-02-30 fail with DateTimeException as with the strict DATE_TIME_FORMATTER.
+     */
+    private static long epochDay(int year, int month, int day) {
+        int date = year * 10000 + month * 100 + day;
+        EpochDay last = lastEpochDay;
+        if (last.date == date) {
+            return last.epochDay;
+        }
+        last = new EpochDay(date, LocalDate.of(year, month, day).toEpochDay());
+        lastEpochDay = last;
+        return last.epochDay;
+    }
+
+    /**
+     * Checks a value same as Integer.parseInt without throwing an exception
+     * @param value trimmed value
+     * @return true when value is an optional sign and digits that fit in an int
+     */
+    private static boolean isInt(String value) {
+        int length = value.length();
+        int position = 0;
+        if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+            position++;
+        }
+        if (position == length) {
+            return false;
+        }
+        long result = 0;
+        for (; position < length; position++) {
+            int digit = value.charAt(position) - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            result = result * 10 + digit;
+            if (result > 1L + Integer.MAX_VALUE) {
+                return false;
+            }
+        }
+        return value.charAt(0) == '-' || result <= Integer.MAX_VALUE;
+    }
+
     /**
      * Parse method gets a CSV record (a date of a line) and converts it to IndexableContent
      * All logic related to weatherdata is implemented in this function
@@ -103,45 +225,96 @@ public class WeatherParser {
      * @return IndexableContent is an helper object to store and get data from Elasticsearch
      */
     public static IndexableContent parse (CSVRecord record) {
+        int size = record.size();
+        // check for header
+        if (Headers.PROJECT.ordinal() < size
+                && record.get(Headers.PROJECT.ordinal()).trim().equals(FIRST_HEADER_VALUE) ) {
+            return null;
+        }
+        // observation are not actually forecasts
+        if (Headers.LEADTIME.ordinal() < size
+                && record.get(Headers.LEADTIME.ordinal()).trim().equals(OBSERVATION) ) {
+            return null;
+        }
         IndexableContent indexableContent = new IndexableContent();
+        long forecastDateTime = WeatherParser.convertDateToUnixtime(record.get(Headers.DATE.ordinal()),
+                record.get(Headers.TIME.ordinal()),
+                record.get(Headers.LEADTIME.ordinal()));
+        String location = record.get(Headers.LOCATION.ordinal()).trim();
+        indexableContent.setId(location + "|" + forecastDateTime);
+        indexableContent.setIndex(WeatherParser.index);
+        indexableContent.setType(WeatherParser.type);
+        indexableContent.add(FORECASTDATETIME, forecastDateTime);
+        int columns = Math.min(size, HEADERS.length);
+        for (int i = 0; i < columns; i++) {
+            String value = i == Headers.LOCATION.ordinal() ? location : record.get(i).trim();
+            if (value.length() > 0) {
+                if (i == Headers.LOCATION.ordinal() || i == Headers.LEADTIME.ordinal() || !isInt(value)) {
+                    // although location and leadtime can be converted to integer
+                    // they are originally string values
+                    indexableContent.add(KEYS[i], value);
+                } else {
+                    // integer values are smaller to store
+                    indexableContent.add(KEYS[i], Integer.parseInt(value));
+                }
+            }
+        }
+        return indexableContent;
+    }
+
+    /**
+     * Parse method gets a line read by ByteCsvReader and converts it to IndexableContent
+     * Result is same as parse(CSVRecord) of the same line,
+     * numbers are read from bytes and a String is created only for text values.
+     *
+     * @param record corresponds to a line in CSV file.
+     * @return IndexableContent is an helper object to store and get data from Elasticsearch
+     */
+    public static IndexableContent parse (ByteCsvRecord record) {
+        return parse(record, WeatherProjection.ALL);
+    }
+
+    /**
+     * Parse method gets a line read by ByteCsvReader and converts projected columns to IndexableContent
+     * Rows not accepted by projection are skipped before any value is converted.
+     *
+     * @param record corresponds to a line in CSV file.
+     * @param projection columns to index and rows to keep
+     * @return IndexableContent or null when line is skipped
+     */
+    public static IndexableContent parse (ByteCsvRecord record, WeatherProjection projection) {
         // check for header
-        if (record.isSet(Headers.PROJECT.name())
-                && record.get(Headers.PROJECT).trim().equals(FIRST_HEADER_VALUE) ) {
+        if (record.equalsAscii(Headers.PROJECT.ordinal(), FIRST_HEADER_VALUE)) {
             return null;
         }
         // observation are not actually forecasts
-        if (record.isSet(Headers.LEADTIME.name())
-                && record.get(Headers.LEADTIME).trim().equals(OBSERVATION) ) {
+        if (record.has(Headers.LEADTIME.ordinal())
+                && record.equalsAscii(Headers.LEADTIME.ordinal(), OBSERVATION)) {
             return null;
         }
-        long forecastDateTime = WeatherParser.convertDateToUnixtime(record.get(Headers.DATE),
-                record.get(Headers.TIME),
-                record.get(Headers.LEADTIME));
-        String id = record.get(Headers.LOCATION).trim()
-                + "|" + forecastDateTime;
-        indexableContent.setId(id);
+        if (!projection.accept(record)) {
+            return null;
+        }
+        IndexableContent indexableContent = new IndexableContent();
+        long forecastDateTime = WeatherParser.convertDateToUnixtime(record);
+        String location = record.getString(Headers.LOCATION.ordinal());
+        indexableContent.setId(location + "|" + forecastDateTime);
         indexableContent.setIndex(WeatherParser.index);
         indexableContent.setType(WeatherParser.type);
         indexableContent.add(FORECASTDATETIME, forecastDateTime);
-        for (Headers header : Headers.values()) {
-            if (header.ordinal() < record.size()) {
-                // all the field names are converted to lowercase to simplify querying process
-                String key = header.name().toLowerCase();
-                String value = record.get(header).trim();
-                if (value.length() > 0) {
-                    try {
-                        if (header.ordinal() == Headers.LOCATION.ordinal()
-                                || header.ordinal() == Headers.LEADTIME.ordinal()) {
-                            // although location and leadtime can be converted to integer
-                            // they are originally string values
-                            indexableContent.add(key, value);
-                        } else {
-                            // integer values are smaller to store
-                            indexableContent.add(key, Integer.parseInt(value));
-                        }
-                    } catch (NumberFormatException e) {
-                        indexableContent.add(key, value);
-                    }
+        for (int i : projection.getOrdinals()) {
+            if (!record.has(i)) {
+                break;
+            }
+            if (record.getLength(i) > 0) {
+                if (i == Headers.LOCATION.ordinal()) {
+                    indexableContent.add(KEYS[i], location);
+                } else if (i == Headers.LEADTIME.ordinal() || !record.isInt(i)) {
+                    // leadtime can be converted to integer but it is originally a string value
+                    indexableContent.add(KEYS[i], record.getString(i));
+                } else {
+                    // integer values are smaller to store
+                    indexableContent.add(KEYS[i], record.getInt(i));
                 }
             }
         }
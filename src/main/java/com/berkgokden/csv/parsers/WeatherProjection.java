@@ -0,0 +1,131 @@
+package com.berkgokden.csv.parsers;
+
+import com.berkgokden.csv.ByteCsvRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columns to index and rows to keep for WeatherParser
+ * Rows are checked on raw fields before any value is converted,
+ * a skipped row is not split further than its location and leadtime fields
+ * and columns after the last projected one are never split.
+ *
+ * forecastdatetime and id are always created,
+ * location, date, time and leadtime are read for them even when they are not projected.
+ */
+public class WeatherProjection {
+    public static final WeatherProjection ALL = new WeatherProjection(null, null, -1);
+
+    private final int[] ordinals;
+    private final Map<Integer, List<String>> locations;
+    private final int maxLeadtime;
+
+    /**
+     * WeatherProjection object constructor
+     * @param columns columns to index, null or empty for all columns
+     * @param locations locations to keep ex.: 062100, null or empty for all locations
+     * @param maxLeadtime maximum leadtime in hours to keep, negative for all leadtimes
+     */
+    public WeatherProjection(Collection<WeatherParser.Headers> columns, Collection<String> locations, int maxLeadtime) {
+        if (columns == null || columns.isEmpty()) {
+            this.ordinals = new int[WeatherParser.Headers.values().length];
+            for (int i = 0; i < ordinals.length; i++) {
+                ordinals[i] = i;
+            }
+        } else {
+            this.ordinals = columns.stream().mapToInt(WeatherParser.Headers::ordinal).distinct().sorted().toArray();
+        }
+        if (locations == null || locations.isEmpty()) {
+            this.locations = null;
+        } else {
+            this.locations = new HashMap<>();
+            for (String location : locations) {
+                String trimmed = location.trim();
+                this.locations.computeIfAbsent(trimmed.hashCode(), hash -> new ArrayList<>()).add(trimmed);
+            }
+        }
+        this.maxLeadtime = maxLeadtime;
+    }
+
+    /**
+     * Creates a projection from parameters
+     * @param columns comma separated column names, case is ignored ex.: TTT,td,pppp
+     * @param locations comma separated locations
+     * @param maxLeadtime maximum leadtime in hours
+     * @return projection, ALL when no parameter is given
+     */
+    public static WeatherProjection parse(String columns, String locations, String maxLeadtime) {
+        if (isEmpty(columns) && isEmpty(locations) && isEmpty(maxLeadtime)) {
+            return ALL;
+        }
+        List<WeatherParser.Headers> headers = new ArrayList<>();
+        if (!isEmpty(columns)) {
+            for (String column : columns.split(",")) {
+                headers.add(header(column.trim()));
+            }
+        }
+        List<String> locationList = isEmpty(locations) ? null : Arrays.asList(locations.split(","));
+        return new WeatherProjection(headers, locationList,
+                isEmpty(maxLeadtime) ? -1 : Integer.parseInt(maxLeadtime.trim()));
+    }
+
+    private static WeatherParser.Headers header(String column) {
+        for (WeatherParser.Headers header : WeatherParser.Headers.values()) {
+            if (header.name().equalsIgnoreCase(column)) {
+                return header;
+            }
+        }
+        throw new IllegalArgumentException("Unknown column: " + column);
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    /**
+     * @return ordinals of columns to index in ascending order
+     */
+    int[] getOrdinals() {
+        return ordinals;
+    }
+
+    /**
+     * Checks row filters on raw fields
+     * @param record a forecast line, header and observation lines should be skipped before
+     * @return true when row should be indexed
+     */
+    public boolean accept(ByteCsvRecord record) {
+        if (locations != null) {
+            int location = WeatherParser.Headers.LOCATION.ordinal();
+            if (!record.has(location)) {
+                return false;
+            }
+            List<String> candidates = locations.get(record.hashAscii(location));
+            if (candidates == null || !contains(candidates, record, location)) {
+                return false;
+            }
+        }
+        if (maxLeadtime >= 0) {
+            int leadtime = WeatherParser.Headers.LEADTIME.ordinal();
+            if (!record.has(leadtime) || !record.isInt(leadtime)
+                    || record.getInt(leadtime) / 100 > maxLeadtime) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(List<String> candidates, ByteCsvRecord record, int i) {
+        for (String candidate : candidates) {
+            if (record.equalsAscii(i, candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
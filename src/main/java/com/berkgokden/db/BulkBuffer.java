@@ -0,0 +1,401 @@
+package com.berkgokden.db;
+
+import com.berkgokden.csv.IndexableContent;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContent;
+import org.elasticsearch.common.xcontent.XContentGenerator;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable buffer holding a _bulk request body
+ * Action and source lines of documents are written directly as json bytes,
+ * there is no builder or byte array per document.
+ * A buffer is reused with clear after its bulk request is done.
+ *
+ * Json is same as created by IndexableContent.getContent.
+ *
+ * SMILE and CBOR sources are written with a generator per document into the same buffer.
+ * SMILE action lines are copied from a template made once per index and type, only the id is encoded,
+ * lines are separated with its stream separator as in a _bulk body.
+ * CBOR does not support stream parsing so only sources are kept and sent as index requests.
+ */
+public class BulkBuffer {
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] HEX_UPPER = "0123456789ABCDEF".getBytes();
+    private static final byte[] INDEX_ACTION = "{\"index\":{\"_index\":\"".getBytes();
+    private static final byte[] TYPE_FIELD = "\",\"_type\":\"".getBytes();
+    private static final byte[] ID_FIELD = "\",\"_id\":\"".getBytes();
+    private static final byte[] NULL = "null".getBytes();
+    // smile tokens of a string value, see jackson SmileConstants
+    private static final int SMILE_EMPTY_STRING = 0x20;
+    private static final int SMILE_TINY_ASCII = 0x40;
+    private static final int SMILE_SHORT_ASCII = 0x60;
+    private static final int SMILE_TINY_UNICODE = 0x80;
+    private static final int SMILE_SHORT_UNICODE = 0xA0;
+    private static final int SMILE_LONG_ASCII = 0xE0;
+    private static final int SMILE_LONG_UNICODE = 0xE4;
+    private static final int SMILE_END_OF_STRING = 0xFC;
+    private static final int SMILE_END_OBJECT = 0xFB;
+    private static final int SMILE_MAX_SHORT_STRING = 64;
+
+    private final XContentType contentType;
+    private final OutputStream stream;
+    private byte[] bytes;
+    private int length;
+    private int actions;
+    // documents in order of actions, CBOR sources end at ends
+    private IndexableContent[] contents;
+    private int[] ends;
+    // smile action line up to the id value, for the index and type of the last document
+    private String templateIndex;
+    private String templateType;
+    private byte[] actionTemplate;
+
+    /**
+     * BulkBuffer object constructor for json documents
+     * @param initialCapacity initial size in bytes, buffer grows when needed
+     */
+    public BulkBuffer(int initialCapacity) {
+        this(initialCapacity, XContentType.JSON);
+    }
+
+    /**
+     * BulkBuffer object constructor
+     * @param initialCapacity initial size in bytes, buffer grows when needed
+     * @param contentType JSON, SMILE or CBOR
+     */
+    public BulkBuffer(int initialCapacity, XContentType contentType) {
+        if (contentType == XContentType.YAML) {
+            throw new IllegalArgumentException("Unsupported bulk content type: " + contentType);
+        }
+        this.contentType = contentType;
+        this.bytes = new byte[Math.max(64, initialCapacity)];
+        this.stream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                BulkBuffer.this.write((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                ensureCapacity(len);
+                System.arraycopy(b, off, bytes, length, len);
+                length += len;
+            }
+        };
+        this.contents = new IndexableContent[64];
+        this.ends = new int[64];
+    }
+
+    /**
+     * Writes index action and source lines of a document
+     * @param indexableContent document with index, type, optional id and fields
+     */
+    public void add(IndexableContent indexableContent) {
+        if (actions == contents.length) {
+            contents = Arrays.copyOf(contents, actions * 2);
+            ends = Arrays.copyOf(ends, actions * 2);
+        }
+        contents[actions] = indexableContent;
+        if (contentType != XContentType.JSON) {
+            try {
+                addBinary(indexableContent);
+            } catch (IOException e) {
+                // writing to memory does not fail, generator errors are unexpected
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        write(INDEX_ACTION);
+        writeEscaped(indexableContent.getIndex());
+        write(TYPE_FIELD);
+        writeEscaped(indexableContent.getType());
+        if (indexableContent.getId() != null) {
+            write(ID_FIELD);
+            writeEscaped(indexableContent.getId());
+        }
+        write((byte) '"');
+        write((byte) '}');
+        write((byte) '}');
+        write((byte) '\n');
+
+        write((byte) '{');
+        for (int i = 0; i < indexableContent.size(); i++) {
+            if (i > 0) {
+                write((byte) ',');
+            }
+            writeString(indexableContent.getKey(i));
+            write((byte) ':');
+            if (indexableContent.getFieldType(i) == IndexableContent.STRING) {
+                writeString(indexableContent.getString(i));
+            } else {
+                writeNumber(indexableContent.getNumber(i));
+            }
+        }
+        write((byte) '}');
+        write((byte) '\n');
+        ends[actions] = length;
+        actions++;
+    }
+
+    private void addBinary(IndexableContent indexableContent) throws IOException {
+        XContent xContent = contentType.xContent();
+        if (contentType != XContentType.CBOR) {
+            byte[] template = indexableContent.getId() == null ? null
+                    : actionTemplate(indexableContent.getIndex(), indexableContent.getType());
+            if (template != null) {
+                write(template);
+                writeSmileString(indexableContent.getId());
+                write((byte) SMILE_END_OBJECT);
+                write((byte) SMILE_END_OBJECT);
+            } else {
+                writeAction(xContent, indexableContent.getIndex(), indexableContent.getType(),
+                        indexableContent.getId());
+            }
+            write(xContent.streamSeparator());
+        }
+        try (XContentGenerator generator = xContent.createGenerator(stream)) {
+            indexableContent.writeTo(generator);
+        }
+        if (contentType != XContentType.CBOR) {
+            write(xContent.streamSeparator());
+        }
+        ends[actions] = length;
+        actions++;
+    }
+
+    private void writeAction(XContent xContent, String index, String type, String id) throws IOException {
+        try (XContentGenerator generator = xContent.createGenerator(stream)) {
+            generator.writeStartObject();
+            generator.writeFieldName("index");
+            generator.writeStartObject();
+            generator.writeFieldName("_index");
+            generator.writeString(index);
+            generator.writeFieldName("_type");
+            generator.writeString(type);
+            if (id != null) {
+                generator.writeFieldName("_id");
+                generator.writeString(id);
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Smile action line with an empty id is written once, the bytes before the empty string are the template
+     * @return template or null when the generator output is not as expected
+     */
+    private byte[] actionTemplate(String index, String type) throws IOException {
+        if (index.equals(templateIndex) && type.equals(templateType)) {
+            return actionTemplate;
+        }
+        int start = length;
+        writeAction(contentType.xContent(), index, type, "");
+        byte[] action = Arrays.copyOfRange(bytes, start, length);
+        length = start;
+        int end = action.length - 3;
+        templateIndex = index;
+        templateType = type;
+        actionTemplate = end > 0 && action[end] == SMILE_EMPTY_STRING
+                && action[end + 1] == (byte) SMILE_END_OBJECT && action[end + 2] == (byte) SMILE_END_OBJECT
+                ? Arrays.copyOf(action, end) : null;
+        return actionTemplate;
+    }
+
+    /**
+     * Writes a string value as a smile generator does without shared string values
+     */
+    private void writeSmileString(String value) {
+        if (value.isEmpty()) {
+            write((byte) SMILE_EMPTY_STRING);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        boolean ascii = utf8.length == value.length();
+        if (utf8.length > SMILE_MAX_SHORT_STRING) {
+            write((byte) (ascii ? SMILE_LONG_ASCII : SMILE_LONG_UNICODE));
+            write(utf8);
+            write((byte) SMILE_END_OF_STRING);
+            return;
+        }
+        if (ascii) {
+            write((byte) (utf8.length <= 32 ? SMILE_TINY_ASCII - 1 + utf8.length
+                    : SMILE_SHORT_ASCII - 33 + utf8.length));
+        } else {
+            write((byte) (utf8.length <= 33 ? SMILE_TINY_UNICODE - 2 + utf8.length
+                    : SMILE_SHORT_UNICODE - 34 + utf8.length));
+        }
+        write(utf8);
+    }
+
+    /**
+     * Creates a bulk request of documents in the buffer
+     * Sources of index requests are slices of the buffer, buffer should not be cleared
+     * until the request is done.
+     * @return bulk request with an index request per document
+     * @throws Exception when buffer content can not be parsed
+     */
+    public BulkRequest toBulkRequest() throws Exception {
+        BulkRequest request = new BulkRequest();
+        if (contentType != XContentType.CBOR) {
+            request.add(bytes(), null, null);
+            return request;
+        }
+        int start = 0;
+        for (int i = 0; i < actions; i++) {
+            request.add(new IndexRequest(contents[i].getIndex(), contents[i].getType(), contents[i].getId())
+                    .source(new BytesArray(bytes, start, ends[i] - start)));
+            start = ends[i];
+        }
+        return request;
+    }
+
+    /**
+     * @param action position of the document in the buffer, same as item id in bulk response
+     * @return document added to the buffer
+     */
+    public IndexableContent getContent(int action) {
+        return contents[action];
+    }
+
+    public XContentType getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return number of documents in the buffer
+     */
+    public int getActions() {
+        return actions;
+    }
+
+    /**
+     * @return number of bytes in the buffer
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return buffer content without copying, valid until clear is called,
+     * for CBOR it is only the sources of documents one after another
+     */
+    public BytesReference bytes() {
+        return new BytesArray(bytes, 0, length);
+    }
+
+    /**
+     * Empties the buffer, allocated memory is kept
+     */
+    public void clear() {
+        Arrays.fill(contents, 0, actions, null);
+        length = 0;
+        actions = 0;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+    }
+
+    private void write(byte b) {
+        ensureCapacity(1);
+        bytes[length++] = b;
+    }
+
+    private void write(byte[] b) {
+        ensureCapacity(b.length);
+        System.arraycopy(b, 0, bytes, length, b.length);
+        length += b.length;
+    }
+
+    private void writeNumber(long value) {
+        if (value == Long.MIN_VALUE) {
+            write(Long.toString(value).getBytes());
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            bytes[length++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    private void writeString(String value) {
+        if (value == null) {
+            write(NULL);
+            return;
+        }
+        write((byte) '"');
+        writeEscaped(value);
+        write((byte) '"');
+    }
+
+    /**
+     * Writes a string as utf-8 with json escapes, same escapes as jackson uses
+     */
+    private void writeEscaped(String value) {
+        int count = value.length();
+        // utf-8 needs at most 3 bytes per char, escapes 6
+        ensureCapacity(count * 6);
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    bytes[length++] = '\\';
+                }
+                bytes[length++] = (byte) c;
+            } else if (c < 0x20) {
+                bytes[length++] = '\\';
+                switch (c) {
+                    case '\b': bytes[length++] = 'b'; break;
+                    case '\t': bytes[length++] = 't'; break;
+                    case '\n': bytes[length++] = 'n'; break;
+                    case '\f': bytes[length++] = 'f'; break;
+                    case '\r': bytes[length++] = 'r'; break;
+                    default:
+                        bytes[length++] = 'u';
+                        bytes[length++] = '0';
+                        bytes[length++] = '0';
+                        bytes[length++] = HEX[c >> 4];
+                        bytes[length++] = HEX[c & 0xf];
+                }
+            } else if (c < 0x800) {
+                bytes[length++] = (byte) (0xc0 | (c >> 6));
+                bytes[length++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // jackson escapes characters outside basic multilingual plane as surrogate pairs
+                bytes[length++] = '\\';
+                bytes[length++] = 'u';
+                bytes[length++] = HEX_UPPER[c >> 12];
+                bytes[length++] = HEX_UPPER[(c >> 8) & 0xf];
+                bytes[length++] = HEX_UPPER[(c >> 4) & 0xf];
+                bytes[length++] = HEX_UPPER[c & 0xf];
+            } else {
+                bytes[length++] = (byte) (0xe0 | (c >> 12));
+                bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                bytes[length++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.berkgokden.db;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A helper class to adapt bulk size in bytes and number of concurrent bulk requests
+ * to what the cluster can take, used by BulkIndexer
+ *
+ * Limits are changed like TCP congestion control (AIMD):
+ * when a bulk is done in target latency, bulk size is increased by minBulkSize
+ * and after bulk size reaches maxBulkSize concurrency is increased by one per round of requests.
+ * When a bulk is slower than target latency, bulk size is halved, concurrency is halved when size is at its floor.
+ * When a bulk or any of its items is rejected (429, EsRejectedExecutionException), both are halved.
+ *
+ * Requests sent before a decrease see the same congestion, so only the first of their responses decreases limits.
+ * Limits never go out of floors and ceilings, with equal floor and ceiling limit is fixed.
+ */
+public class BulkController {
+    private static final Logger logger = Logger.getLogger(BulkController.class.getName());
+
+    private final long minBulkSize;
+    private final long maxBulkSize;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final long targetLatency;
+    private long bulkSize;
+    private int concurrency;
+    private int successes;
+    private long epoch;
+
+    /**
+     * BulkController object constructor, starts from floors
+     * @param minBulkSize floor of bulk size in bytes, also the step of increase
+     * @param maxBulkSize ceiling of bulk size in bytes
+     * @param minConcurrency floor of concurrent requests, at least 1
+     * @param maxConcurrency ceiling of concurrent requests
+     * @param targetLatency milliseconds, slower bulks decrease limits
+     */
+    public BulkController(long minBulkSize, long maxBulkSize, int minConcurrency, int maxConcurrency,
+                          long targetLatency) {
+        if (minBulkSize <= 0 || maxBulkSize < minBulkSize || minConcurrency < 1 || maxConcurrency < minConcurrency) {
+            throw new IllegalArgumentException("Invalid bulk limits: size " + minBulkSize + "-" + maxBulkSize
+                    + ", concurrency " + minConcurrency + "-" + maxConcurrency);
+        }
+        this.minBulkSize = minBulkSize;
+        this.maxBulkSize = maxBulkSize;
+        this.minConcurrency = minConcurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.targetLatency = targetLatency;
+        this.bulkSize = minBulkSize;
+        this.concurrency = minConcurrency;
+    }
+
+    /**
+     * Creates a controller that never changes limits
+     * @param bulkSize bulk size in bytes
+     * @param concurrency number of concurrent requests
+     * @return fixed BulkController
+     */
+    public static BulkController fixed(long bulkSize, int concurrency) {
+        return new BulkController(bulkSize, bulkSize, concurrency, concurrency, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return current bulk size in bytes
+     */
+    public synchronized long getBulkSize() {
+        return bulkSize;
+    }
+
+    public long getMaxBulkSize() {
+        return maxBulkSize;
+    }
+
+    /**
+     * @return current number of concurrent requests
+     */
+    public synchronized int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return number of decreases so far, should be taken when a request is sent
+     */
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Called when a bulk is done without rejections
+     * @param requestEpoch epoch when the request is sent
+     * @param latency milliseconds the request took
+     */
+    public synchronized void onSuccess(long requestEpoch, long latency) {
+        if (latency > targetLatency) {
+            if (requestEpoch == epoch) {
+                decrease(bulkSize == minBulkSize, "bulk took " + latency + "ms");
+            }
+            return;
+        }
+        if (bulkSize < maxBulkSize) {
+            bulkSize = Math.min(maxBulkSize, bulkSize + minBulkSize);
+            logger.debug("Bulk size increased to " + bulkSize + " bytes");
+        } else if (concurrency < maxConcurrency && ++successes >= concurrency) {
+            successes = 0;
+            concurrency++;
+            logger.info("Bulk concurrency increased to " + concurrency);
+        }
+    }
+
+    /**
+     * Called when a bulk or some of its items are rejected since the cluster is busy
+     * @param requestEpoch epoch when the request is sent
+     */
+    public synchronized void onRejected(long requestEpoch) {
+        if (requestEpoch == epoch) {
+            decrease(true, "bulk is rejected");
+        }
+    }
+
+    private void decrease(boolean decreaseConcurrency, String reason) {
+        epoch++;
+        successes = 0;
+        bulkSize = Math.max(minBulkSize, bulkSize / 2);
+        if (decreaseConcurrency) {
+            concurrency = Math.max(minConcurrency, concurrency / 2);
+        }
+        logger.info("Bulk limits decreased, " + reason + ": size " + bulkSize + " bytes, concurrency " + concurrency);
+    }
+}
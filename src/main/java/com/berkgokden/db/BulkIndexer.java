@@ -0,0 +1,396 @@
+package com.berkgokden.db;
+
+import com.berkgokden.csv.IndexableContent;
+import org.apache.log4j.Logger;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bulk request executor working on BulkBuffer
+ * Documents are written into the current buffer, the buffer is sent as a bulk request
+ * when it has enough documents or bytes, or when the flush interval passes.
+ * Buffers are pooled and reused after their request is done.
+ *
+ * Like BulkProcessor of Elasticsearch adding blocks while concurrentRequests requests are in progress.
+ * Failed requests, rejected items and items failed with a server error are retried with exponential backoff
+ * in smaller bulks, other failed items are reported to the listener.
+ * Bulk size in bytes and concurrentRequests are limits of a BulkController,
+ * latency and rejections of every request are reported to it.
+ */
+public class BulkIndexer {
+    private static final Logger logger = Logger.getLogger(BulkIndexer.class.getName());
+
+    /**
+     * Gets the result of every document after its bulk item is done
+     * Methods are called from Elasticsearch client threads.
+     */
+    public interface Listener {
+        void onSuccess(IndexableContent indexableContent);
+
+        /**
+         * Called when a document still fails after all retries, ex.: cluster is busy or down
+         */
+        void onFailure(IndexableContent indexableContent, String message);
+
+        /**
+         * Called when a document is refused by Elasticsearch and would fail again, ex.: a mapping error
+         * Default handles it as any other failure.
+         */
+        default void onPermanentFailure(IndexableContent indexableContent, String message) {
+            onFailure(indexableContent, message);
+        }
+    }
+
+    private static final Listener NO_LISTENER = new Listener() {
+        @Override
+        public void onSuccess(IndexableContent indexableContent) {
+        }
+
+        @Override
+        public void onFailure(IndexableContent indexableContent, String message) {
+        }
+    };
+
+    private final Client client;
+    private final int bulkActions;
+    private final BulkController controller;
+    private final int maxRetries;
+    private final long retryDelay;
+    private final XContentType contentType;
+    private final Object permits = new Object();
+    private int inFlight;
+    private final ScheduledExecutorService scheduler;
+    private final Deque<BulkBuffer> freeBuffers;
+    private final AtomicLong executionIds;
+    private volatile Listener listener = NO_LISTENER;
+    private BulkBuffer current;
+
+    /**
+     * BulkIndexer object constructor
+     * @param client Elasticsearch client
+     * @param bulkActions number of documents in a bulk request
+     * @param bulkSize maximum bytes in a bulk request, it can be exceeded by the last document
+     * @param flushInterval milliseconds after which documents are sent even if bulk is not full, 0 to disable
+     * @param concurrentRequests number of bulk requests in progress at the same time
+     * @param maxRetries number of retries for failed requests and items
+     * @param retryDelay milliseconds before the first retry, doubled for every retry
+     */
+    public BulkIndexer(Client client, int bulkActions, long bulkSize, long flushInterval,
+                       int concurrentRequests, int maxRetries, long retryDelay) {
+        this(client, bulkActions, bulkSize, flushInterval, concurrentRequests, maxRetries, retryDelay,
+                XContentType.JSON);
+    }
+
+    /**
+     * BulkIndexer object constructor
+     * @param contentType format of documents JSON, SMILE or CBOR, see BulkBuffer
+     */
+    public BulkIndexer(Client client, int bulkActions, long bulkSize, long flushInterval,
+                       int concurrentRequests, int maxRetries, long retryDelay, XContentType contentType) {
+        this(client, bulkActions, BulkController.fixed(bulkSize, concurrentRequests), flushInterval,
+                maxRetries, retryDelay, contentType);
+    }
+
+    /**
+     * BulkIndexer object constructor
+     * @param client Elasticsearch client
+     * @param bulkActions maximum number of documents in a bulk request
+     * @param controller limits of bulk size in bytes and concurrent requests
+     * @param flushInterval milliseconds after which documents are sent even if bulk is not full, 0 to disable
+     * @param maxRetries number of retries for failed requests and items
+     * @param retryDelay milliseconds before the first retry, doubled for every retry
+     * @param contentType format of documents JSON, SMILE or CBOR, see BulkBuffer
+     */
+    public BulkIndexer(Client client, int bulkActions, BulkController controller, long flushInterval,
+                       int maxRetries, long retryDelay, XContentType contentType) {
+        this.client = client;
+        this.bulkActions = bulkActions;
+        this.controller = controller;
+        this.maxRetries = maxRetries;
+        this.retryDelay = retryDelay;
+        this.contentType = contentType;
+        this.freeBuffers = new ArrayDeque<>();
+        this.executionIds = new AtomicLong();
+        this.current = new BulkBuffer(initialCapacity(), contentType);
+        // flush can wait for a request to finish, second thread runs retries of that request meanwhile
+        this.scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "bulk-indexer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (flushInterval > 0) {
+            this.scheduler.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Listener should be set before the first document is added
+     * @param listener gets the result of every document
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a document to the current bulk, sends the bulk when it is full
+     * Blocks while concurrency limit of requests are in progress and the bulk is full.
+     * @param indexableContent the object to be indexed
+     */
+    public synchronized void add(IndexableContent indexableContent) {
+        current.add(indexableContent);
+        if (current.getActions() >= bulkActions || current.length() >= controller.getBulkSize()) {
+            execute();
+        }
+    }
+
+    /**
+     * Sends documents waiting in the current bulk
+     */
+    public synchronized void flush() {
+        if (current.getActions() > 0) {
+            execute();
+        }
+    }
+
+    /**
+     * Flushes and waits for requests in progress
+     * @param timeout maximum time to wait
+     * @param unit unit of timeout
+     * @return true when all requests are done
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        flush();
+        scheduler.shutdown();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (permits) {
+            while (inFlight > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(permits, remaining);
+            }
+        }
+        return true;
+    }
+
+    public BulkController getController() {
+        return controller;
+    }
+
+    private int initialCapacity() {
+        return (int) Math.min(controller.getMaxBulkSize(), 1024 * 1024);
+    }
+
+    /**
+     * Waits until a request can be sent in current concurrency limit of controller
+     */
+    private void acquire() throws InterruptedException {
+        synchronized (permits) {
+            while (inFlight >= controller.getConcurrency()) {
+                permits.wait();
+            }
+            inFlight++;
+        }
+    }
+
+    private void execute() {
+        BulkBuffer buffer = current;
+        synchronized (freeBuffers) {
+            current = freeBuffers.isEmpty() ? new BulkBuffer(initialCapacity(), contentType) : freeBuffers.pop();
+        }
+        long executionId = executionIds.incrementAndGet();
+        try {
+            acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted, bulk is not sent: " + executionId + " with "
+                    + buffer.getActions() + " documents");
+            failAll(buffer, null, "Interrupted before bulk is sent");
+            release(buffer, false);
+            return;
+        }
+        BulkRequest request;
+        try {
+            request = buffer.toBulkRequest();
+        } catch (Exception e) {
+            logger.error("Bulk request creation failed: " + executionId, e);
+            failAll(buffer, null, "Bulk request creation failed: " + e.getMessage());
+            release(buffer, true);
+            return;
+        }
+        logger.info("execution start: " + executionId);
+        send(new Execution(executionId, buffer), request, null, 0);
+    }
+
+    /**
+     * Sends a bulk request
+     * Failed items that can succeed later are retried, others are reported to the listener.
+     * @param actions positions in buffer of request items, null when request has all documents of buffer
+     */
+    private void send(Execution execution, BulkRequest request, int[] actions, int retries) {
+        BulkBuffer buffer = execution.buffer;
+        long epoch = controller.getEpoch();
+        long start = System.currentTimeMillis();
+        client.bulk(request, new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                BulkRequest failed = new BulkRequest();
+                int[] failedActions = new int[request.numberOfActions()];
+                boolean isRejected = false;
+                for (BulkItemResponse item : response) {
+                    int action = actions == null ? item.getItemId() : actions[item.getItemId()];
+                    if (!item.isFailed()) {
+                        listener.onSuccess(buffer.getContent(action));
+                        continue;
+                    }
+                    RestStatus status = item.getFailure().getStatus();
+                    isRejected |= status == RestStatus.TOO_MANY_REQUESTS;
+                    if (isRetryable(status) && retries < maxRetries) {
+                        failedActions[failed.numberOfActions()] = action;
+                        failed.add(request.requests().get(item.getItemId()));
+                    } else {
+                        logger.error("Indexing failed: " + item.getIndex() + "/" + item.getType() + "/"
+                                + item.getId() + " " + item.getFailureMessage());
+                        if (isRetryable(status)) {
+                            listener.onFailure(buffer.getContent(action), item.getFailureMessage());
+                        } else {
+                            listener.onPermanentFailure(buffer.getContent(action), item.getFailureMessage());
+                        }
+                    }
+                }
+                if (isRejected) {
+                    controller.onRejected(epoch);
+                } else {
+                    controller.onSuccess(epoch, System.currentTimeMillis() - start);
+                }
+                if (failed.numberOfActions() > 0) {
+                    retry(execution, failed, Arrays.copyOf(failedActions, failed.numberOfActions()), retries);
+                }
+                execution.release();
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                if (ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException) {
+                    controller.onRejected(epoch);
+                }
+                // rejections and connection errors are temporary, other errors are retried as well
+                if (retries < maxRetries) {
+                    logger.warn("execution failed: " + execution.id + " " + e.getMessage());
+                    retry(execution, request, actions, retries);
+                } else {
+                    logger.error("execution failed: " + execution.id, e);
+                    failAll(buffer, actions, e.getMessage());
+                }
+                execution.release();
+            }
+        });
+    }
+
+    /**
+     * Too many requests and server errors may succeed later,
+     * client errors like a mapping conflict fail again
+     */
+    private static boolean isRetryable(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500;
+    }
+
+    /**
+     * Sends failed items again after a backoff
+     * Items are split into two smaller bulks, so retries put less load on a busy cluster
+     * and a bad document fails with fewer others on every retry.
+     */
+    private void retry(Execution execution, BulkRequest request, int[] actions, int retries) {
+        long delay = retryDelay << retries;
+        int count = request.numberOfActions();
+        int partSize = Math.max(1, (count + 1) / 2);
+        logger.warn("Bulk " + execution.id + " failed, retrying " + count + " documents in bulks of "
+                + partSize + " in " + delay + "ms");
+        for (int from = 0; from < count; from += partSize) {
+            int to = Math.min(count, from + partSize);
+            BulkRequest part = new BulkRequest();
+            int[] partActions = new int[to - from];
+            for (int i = from; i < to; i++) {
+                part.add(request.requests().get(i));
+                partActions[i - from] = actions == null ? i : actions[i];
+            }
+            execution.pending.incrementAndGet();
+            try {
+                scheduler.schedule(() -> send(execution, part, partActions, retries + 1),
+                        delay, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                // scheduler is shut down after awaitClose
+                send(execution, part, partActions, retries + 1);
+            }
+        }
+    }
+
+    private void failAll(BulkBuffer buffer, int[] actions, String message) {
+        int count = actions == null ? buffer.getActions() : actions.length;
+        for (int i = 0; i < count; i++) {
+            listener.onFailure(buffer.getContent(actions == null ? i : actions[i]), message);
+        }
+    }
+
+    /**
+     * Returns a buffer to the pool, called when its request is done
+     * this lock is not used since add may hold it while waiting for the semaphore
+     */
+    private void release(BulkBuffer buffer, boolean acquired) {
+        buffer.clear();
+        synchronized (freeBuffers) {
+            if (freeBuffers.size() < controller.getMaxConcurrency()) {
+                freeBuffers.push(buffer);
+            }
+        }
+        if (acquired) {
+            synchronized (permits) {
+                inFlight--;
+                // limit may be changed by the response, all waiting threads check it again
+                permits.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * A buffer sent as a bulk request
+     * pending counts requests in progress, retries of a request can be split into several requests.
+     * Buffer is released when all of them are done.
+     */
+    private class Execution {
+        private final long id;
+        private final BulkBuffer buffer;
+        private final AtomicInteger pending;
+
+        private Execution(long id, BulkBuffer buffer) {
+            this.id = id;
+            this.buffer = buffer;
+            this.pending = new AtomicInteger(1);
+        }
+
+        private void release() {
+            if (pending.decrementAndGet() == 0) {
+                logger.info("execution stop: " + id);
+                BulkIndexer.this.release(buffer, true);
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.berkgokden.db;
+
+import org.apache.log4j.Logger;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.IndexNotFoundException;
+import org.elasticsearch.indices.IndexAlreadyExistsException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A helper class to tune index settings while a large amount of documents is indexed
+ * When the first document of an index comes, refresh is disabled and replicas are removed,
+ * ex.: for a historical backfill. Original settings are restored when no document comes for idleTime
+ * and the index is optionally force merged.
+ *
+ * Original settings are kept in a local state file before they are changed,
+ * after a crash recover restores them on the next start.
+ * State file format is plain text, every line is "index TAB refresh_interval TAB number_of_replicas".
+ *
+ * An index already in bulk load mode, ex.: by another worker, is not restored by this one.
+ * Requests to Elasticsearch wait at most a timeout, a shorter one when JVM shuts down,
+ * settings that could not be restored in time are restored by recover on the next start.
+ */
+public class BulkLoadMode implements Closeable {
+    private static final Logger logger = Logger.getLogger(BulkLoadMode.class.getName());
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String REFRESH_INTERVAL = "index.refresh_interval";
+    private static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+    private static final String BULK_REFRESH_INTERVAL = "-1";
+    private static final String BULK_NUMBER_OF_REPLICAS = "0";
+    private static final String DEFAULT_REFRESH_INTERVAL = "1s";
+    private static final String DEFAULT_NUMBER_OF_REPLICAS = "1";
+    private static final TimeValue REQUEST_TIMEOUT = TimeValue.timeValueSeconds(30);
+    private static final TimeValue SHUTDOWN_TIMEOUT = TimeValue.timeValueSeconds(5);
+
+    private final Client client;
+    private final Path stateFile;
+    private final long idleTime;
+    private final int forceMergeSegments;
+    private final Set<String> active;
+    // original refresh interval and number of replicas of indices changed by this object
+    private final Map<String, String[]> originals;
+    private volatile long lastActivity;
+    private ScheduledExecutorService scheduler;
+    private Thread shutdownHook;
+
+    /**
+     * BulkLoadMode object constructor
+     * @param client Elasticsearch client
+     * @param stateFile local file of original settings
+     * @param idleTime milliseconds without documents after which settings are restored
+     * @param forceMergeSegments number of segments to merge indices into after restore, 0 to disable
+     */
+    public BulkLoadMode(Client client, Path stateFile, long idleTime, int forceMergeSegments) {
+        this.client = client;
+        this.stateFile = stateFile;
+        this.idleTime = idleTime;
+        this.forceMergeSegments = forceMergeSegments;
+        this.active = ConcurrentHashMap.newKeySet();
+        this.originals = new LinkedHashMap<>();
+    }
+
+    /**
+     * Called for every document, switches its index to bulk load mode on the first one
+     * @param index name of the index
+     */
+    public void touch(String index) {
+        lastActivity = System.currentTimeMillis();
+        if (!active.contains(index)) {
+            enter(index);
+        }
+    }
+
+    /**
+     * Restores settings left by a bulk load that did not finish, ex.: after a crash
+     * @throws IOException when state file can not be read
+     */
+    public synchronized void recover() throws IOException {
+        if (!Files.exists(stateFile)) {
+            return;
+        }
+        Map<String, String[]> saved = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length == 3) {
+                    saved.put(parts[0], new String[] {parts[1], parts[2]});
+                }
+            }
+        }
+        logger.info("Restoring settings of " + saved.keySet() + " left by an unfinished bulk load");
+        for (Map.Entry<String, String[]> entry : saved.entrySet()) {
+            if (!active.contains(entry.getKey())) {
+                originals.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+        restore(REQUEST_TIMEOUT);
+    }
+
+    /**
+     * Restores original settings of all indices in bulk load mode
+     * State file is kept when restore fails, so it is tried again on the next start.
+     */
+    public synchronized void exit() {
+        removeShutdownHook();
+        active.clear();
+        if (originals.isEmpty()) {
+            return;
+        }
+        restore(REQUEST_TIMEOUT);
+    }
+
+    /**
+     * Stops idle check and shutdown hook without restoring settings
+     * Settings of indices in bulk load mode are left as they are, like after a crash,
+     * they are restored by recover on the next start. Call exit first to restore them now.
+     */
+    @Override
+    public synchronized void close() {
+        removeShutdownHook();
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return names of indices in bulk load mode
+     */
+    public Set<String> getActive() {
+        return active;
+    }
+
+    private synchronized void enter(String index) {
+        if (active.contains(index)) {
+            return;
+        }
+        try {
+            try {
+                // index is created with its templates, so original settings can be read
+                client.admin().indices().prepareCreate(index).get(REQUEST_TIMEOUT);
+            } catch (IndexAlreadyExistsException e) {
+                logger.debug("Index exists: " + index);
+            }
+            GetSettingsResponse response = client.admin().indices().prepareGetSettings(index).get(REQUEST_TIMEOUT);
+            String refreshInterval = response.getSetting(index, REFRESH_INTERVAL);
+            String numberOfReplicas = response.getSetting(index, NUMBER_OF_REPLICAS);
+            if (BULK_REFRESH_INTERVAL.equals(refreshInterval) && BULK_NUMBER_OF_REPLICAS.equals(numberOfReplicas)) {
+                logger.info("Index is already in bulk load mode, it is not restored by this worker: " + index);
+            } else {
+                originals.put(index, new String[] {
+                        refreshInterval == null ? DEFAULT_REFRESH_INTERVAL : refreshInterval,
+                        numberOfReplicas == null ? DEFAULT_NUMBER_OF_REPLICAS : numberOfReplicas});
+                // originals are saved before settings are changed
+                save();
+                addShutdownHook();
+                update(index, BULK_REFRESH_INTERVAL, BULK_NUMBER_OF_REPLICAS, REQUEST_TIMEOUT);
+                logger.info("Bulk load mode started for " + index + ", original refresh interval "
+                        + originals.get(index)[0] + ", replicas " + originals.get(index)[1]);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Bulk load mode can not be started for " + index, e);
+        }
+        // a failed index is not tried again for every document
+        active.add(index);
+        startIdleCheck();
+    }
+
+    /**
+     * Called by the shutdown hook, waits shorter than a normal exit so JVM is not kept alive
+     */
+    private synchronized void shutdown() {
+        shutdownHook = null;
+        active.clear();
+        if (originals.isEmpty()) {
+            return;
+        }
+        restore(SHUTDOWN_TIMEOUT);
+    }
+
+    private void restore(TimeValue timeout) {
+        boolean restored = true;
+        for (Map.Entry<String, String[]> entry : originals.entrySet()) {
+            String index = entry.getKey();
+            try {
+                update(index, entry.getValue()[0], entry.getValue()[1], timeout);
+                client.admin().indices().prepareRefresh(index).get(timeout);
+                logger.info("Bulk load mode finished for " + index + ", refresh interval "
+                        + entry.getValue()[0] + ", replicas " + entry.getValue()[1]);
+                if (forceMergeSegments > 0) {
+                    forceMerge(index, timeout);
+                }
+            } catch (IndexNotFoundException e) {
+                logger.warn("Index of bulk load is deleted: " + index);
+            } catch (RuntimeException e) {
+                logger.error("Settings of " + index + " can not be restored", e);
+                restored = false;
+            }
+        }
+        if (!restored) {
+            return;
+        }
+        originals.clear();
+        try {
+            Files.deleteIfExists(stateFile);
+        } catch (IOException e) {
+            logger.error("Bulk load state file can not be deleted: " + stateFile, e);
+        }
+    }
+
+    /**
+     * Settings are already restored, a merge that takes longer than timeout goes on in the cluster
+     */
+    private void forceMerge(String index, TimeValue timeout) {
+        try {
+            client.admin().indices().prepareForceMerge(index).setMaxNumSegments(forceMergeSegments).get(timeout);
+            logger.info("Index force merged into " + forceMergeSegments + " segments: " + index);
+        } catch (ElasticsearchTimeoutException e) {
+            logger.warn("Force merge of " + index + " is not done in " + timeout + ", it goes on in the cluster");
+        }
+    }
+
+    private void update(String index, String refreshInterval, String numberOfReplicas, TimeValue timeout) {
+        client.admin().indices().prepareUpdateSettings(index).setSettings(Settings.builder()
+                .put(REFRESH_INTERVAL, refreshInterval)
+                .put(NUMBER_OF_REPLICAS, numberOfReplicas)).get(timeout);
+    }
+
+    /**
+     * Writes originals atomically to state file
+     */
+    private void save() throws IOException {
+        Path temp = stateFile.resolveSibling(stateFile.getFileName() + TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BufferedWriter writer = new BufferedWriter(
+                    new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            for (Map.Entry<String, String[]> entry : originals.entrySet()) {
+                writer.write(entry.getKey() + "\t" + entry.getValue()[0] + "\t" + entry.getValue()[1]);
+                writer.newLine();
+            }
+            writer.flush();
+            channel.force(true);
+        }
+        Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Settings are also restored when JVM shuts down normally, hook is removed by exit and close
+     */
+    private void addShutdownHook() {
+        if (shutdownHook != null) {
+            return;
+        }
+        Thread hook = new Thread(this::shutdown, "bulk-load-shutdown");
+        try {
+            Runtime.getRuntime().addShutdownHook(hook);
+            shutdownHook = hook;
+        } catch (IllegalStateException e) {
+            logger.warn("JVM is shutting down, bulk load settings are restored on the next start");
+        }
+    }
+
+    private void removeShutdownHook() {
+        if (shutdownHook == null) {
+            return;
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // JVM is shutting down, hook restores settings
+        }
+        shutdownHook = null;
+    }
+
+    /**
+     * Starts a thread checking for idle time
+     */
+    private void startIdleCheck() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bulk-load");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleTime / 4);
+        scheduler.scheduleWithFixedDelay(() -> {
+            if (!active.isEmpty() && System.currentTimeMillis() - lastActivity > idleTime) {
+                logger.info("No document for " + idleTime + "ms, finishing bulk load");
+                exit();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+}
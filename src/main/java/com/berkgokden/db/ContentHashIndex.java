@@ -0,0 +1,356 @@
+package com.berkgokden.db;
+
+import com.berkgokden.csv.IndexableContent;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A local index of document ids to hashes of their content
+ * Documents of consecutive model runs mostly have the same values,
+ * a document whose hash is not changed since it was indexed can be skipped.
+ *
+ * The index is an open addressing hash table of 64 bit id hash and 64 bit content hash pairs
+ * in a memory mapped file, so it uses no heap per document and it is kept after a restart.
+ * Table is doubled into a new file when it is 3/4 full, at maximum capacity it is cleared instead
+ * and every document is indexed once again, so probing never runs in a nearly full table.
+ *
+ * Fields that change every run without changing the forecast, ex.: model, can be ignored in content hash.
+ * When the Elasticsearch index is deleted the file should be deleted too, otherwise documents are skipped.
+ *
+ * Hashes are local to a worker, a worker only knows the content it indexed itself.
+ * When another worker indexes a different content for a document and this worker gets
+ * the content it indexed before, the document is skipped and Elasticsearch keeps the other content.
+ * Ignored fields make this more likely, ex.: with model ignored a document keeps the model
+ * of whichever run was indexed last by any worker, not of the latest run.
+ */
+public class ContentHashIndex implements Closeable {
+    private static final Logger logger = Logger.getLogger(ContentHashIndex.class.getName());
+
+    private static final int MAGIC = 0x43484958;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int ENTRY_SIZE = 16;
+    private static final int MAX_CAPACITY = 1 << 26;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Path file;
+    private final Set<String> ignoredFields;
+    private final int maxCapacity;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int size;
+
+    /**
+     * ContentHashIndex object constructor, opens or creates the index file
+     * @param file index file
+     * @param ignoredFields fields not used in content hash ex.: model
+     * @throws IOException when file can not be opened
+     */
+    public ContentHashIndex(Path file, Collection<String> ignoredFields) throws IOException {
+        this(file, ignoredFields, 1 << 16);
+    }
+
+    /**
+     * ContentHashIndex object constructor, opens or creates the index file
+     * @param file index file
+     * @param ignoredFields fields not used in content hash ex.: model
+     * @param initialCapacity number of slots of a new file, rounded up to a power of two
+     * @throws IOException when file can not be opened
+     */
+    public ContentHashIndex(Path file, Collection<String> ignoredFields, int initialCapacity) throws IOException {
+        this(file, ignoredFields, initialCapacity, MAX_CAPACITY);
+    }
+
+    /**
+     * ContentHashIndex object constructor, opens or creates the index file
+     * @param file index file
+     * @param ignoredFields fields not used in content hash ex.: model
+     * @param initialCapacity number of slots of a new file, rounded up to a power of two
+     * @param maxCapacity number of slots the table is not doubled beyond, rounded up to a power of two
+     * @throws IOException when file can not be opened
+     */
+    public ContentHashIndex(Path file, Collection<String> ignoredFields,
+                            int initialCapacity, int maxCapacity) throws IOException {
+        this.file = file;
+        this.maxCapacity = Math.min(slots(maxCapacity), MAX_CAPACITY);
+        this.ignoredFields = ignoredFields == null
+                ? Collections.emptySet() : new HashSet<>(ignoredFields);
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        if (!load()) {
+            create(file, Math.min(slots(initialCapacity), this.maxCapacity));
+            load();
+        }
+        logger.info("Content hash index " + file + " has " + size + " documents");
+    }
+
+    /**
+     * Calculates hash of fields except ignored ones
+     * @param indexableContent document
+     * @return 64 bit hash
+     */
+    public long hash(IndexableContent indexableContent) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < indexableContent.size(); i++) {
+            String key = indexableContent.getKey(i);
+            if (ignoredFields.contains(key)) {
+                continue;
+            }
+            hash = hash(hash, key);
+            hash = (hash ^ indexableContent.getFieldType(i)) * FNV_PRIME;
+            if (indexableContent.getFieldType(i) == IndexableContent.STRING) {
+                String value = indexableContent.getString(i);
+                hash = value == null ? (hash ^ 0xff) * FNV_PRIME : hash(hash, value);
+            } else {
+                long value = indexableContent.getNumber(i);
+                for (int shift = 0; shift < 64; shift += 8) {
+                    hash = (hash ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+                }
+            }
+        }
+        return mix(hash);
+    }
+
+    /**
+     * @param indexableContent document with index, type and id
+     * @param contentHash hash of document, see hash
+     * @return true when the same content of document is indexed before
+     */
+    public synchronized boolean isUnchanged(IndexableContent indexableContent, long contentHash) {
+        if (indexableContent.getId() == null) {
+            return false;
+        }
+        long key = key(indexableContent);
+        int slot = find(key);
+        return buffer.getLong(offset(slot)) == key && buffer.getLong(offset(slot) + 8) == contentHash;
+    }
+
+    /**
+     * Records content hash of an indexed document
+     * @param indexableContent document with index, type and id
+     * @param contentHash hash of document, see hash
+     */
+    public synchronized void put(IndexableContent indexableContent, long contentHash) {
+        if (indexableContent.getId() == null) {
+            return;
+        }
+        long key = key(indexableContent);
+        int slot = find(key);
+        if (buffer.getLong(offset(slot)) != key) {
+            if ((size + 1) * 4L > capacity * 3L) {
+                try {
+                    if (capacity < maxCapacity) {
+                        resize(capacity * 2);
+                    } else {
+                        clear();
+                    }
+                } catch (IOException e) {
+                    logger.error("Content hash index can not be resized or cleared: " + file, e);
+                    return;
+                }
+                slot = find(key);
+            }
+            buffer.putLong(offset(slot), key);
+            size++;
+            buffer.putInt(12, size);
+        }
+        buffer.putLong(offset(slot) + 8, contentHash);
+    }
+
+    /**
+     * @return number of documents in the index
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Writes changes to disk and closes the file
+     * @throws IOException when file can not be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            buffer.force();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Linear probing
+     * @return slot of key or the empty slot where key should be
+     */
+    private int find(long key) {
+        int mask = capacity - 1;
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        while (true) {
+            long current = buffer.getLong(offset(slot));
+            if (current == 0 || current == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return number of slots rounded up to a power of two, at least 16
+     */
+    private static int slots(int count) {
+        return Integer.highestOneBit(Math.max(16, count) - 1) << 1;
+    }
+
+    /**
+     * Position of a slot, table is at most 1GB so it fits in an int
+     */
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * ENTRY_SIZE;
+    }
+
+    private static long key(IndexableContent indexableContent) {
+        long hash = hash(FNV_OFFSET, indexableContent.getIndex());
+        hash = hash(hash, indexableContent.getType());
+        hash = mix(hash(hash, indexableContent.getId()));
+        // 0 marks an empty slot
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static long hash(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+                hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+            }
+        }
+        // separator so "ab","c" and "a","bc" differ
+        return (hash ^ 0x1f) * FNV_PRIME;
+    }
+
+    /**
+     * Final mix of murmur3, spreads fnv bits for linear probing
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Maps an existing valid file
+     * @return false when file does not exist or it is not a valid index
+     */
+    private boolean load() throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long fileSize = fileChannel.size();
+        if (fileSize < HEADER_SIZE) {
+            fileChannel.close();
+            logger.warn("Invalid content hash index is replaced: " + file);
+            return false;
+        }
+        MappedByteBuffer mapped = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        int slots = mapped.getInt(8);
+        if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION || Integer.bitCount(slots) != 1
+                || fileSize != offset(slots)) {
+            fileChannel.close();
+            logger.warn("Invalid content hash index is replaced: " + file);
+            return false;
+        }
+        close();
+        this.channel = fileChannel;
+        this.buffer = mapped;
+        this.capacity = slots;
+        // size in header may be behind entries after a crash
+        int count = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            if (mapped.getLong(offset(slot)) != 0) {
+                count++;
+            }
+        }
+        this.size = count;
+        mapped.putInt(12, count);
+        return true;
+    }
+
+    /**
+     * Creates an empty index file, an existing file is replaced atomically
+     */
+    private static void create(Path target, int slots) throws IOException {
+        Path temp = Paths.get(target + ".tmp");
+        try (FileChannel fileChannel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, offset(slots));
+            mapped.putInt(0, MAGIC);
+            mapped.putInt(4, VERSION);
+            mapped.putInt(8, slots);
+            mapped.putInt(12, 0);
+            mapped.force();
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replaces a table at maximum capacity with an empty one of the same size
+     */
+    private void clear() throws IOException {
+        create(file, capacity);
+        if (!load()) {
+            throw new IOException("Cleared content hash index can not be loaded: " + file);
+        }
+        logger.warn("Content hash index " + file + " is full at " + capacity
+                + " slots, it is cleared and documents are indexed again");
+    }
+
+    private void resize(int slots) throws IOException {
+        Path temp = Paths.get(file + ".resize");
+        try (FileChannel fileChannel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, offset(slots));
+            int mask = slots - 1;
+            for (int slot = 0; slot < capacity; slot++) {
+                long key = buffer.getLong(offset(slot));
+                if (key == 0) {
+                    continue;
+                }
+                int target = (int) (key ^ (key >>> 32)) & mask;
+                while (mapped.getLong(offset(target)) != 0) {
+                    target = (target + 1) & mask;
+                }
+                mapped.putLong(offset(target), key);
+                mapped.putLong(offset(target) + 8, buffer.getLong(offset(slot) + 8));
+            }
+            mapped.putInt(0, MAGIC);
+            mapped.putInt(4, VERSION);
+            mapped.putInt(8, slots);
+            mapped.putInt(12, size);
+            mapped.force();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (!load()) {
+            throw new IOException("Resized content hash index can not be loaded: " + file);
+        }
+        logger.info("Content hash index " + file + " resized to " + slots + " slots");
+    }
+}
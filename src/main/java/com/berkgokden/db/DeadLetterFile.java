@@ -0,0 +1,308 @@
+package com.berkgokden.db;
+
+import com.berkgokden.csv.IndexableContent;
+import org.apache.log4j.Logger;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesArray;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only local file of documents that could not be indexed
+ * Documents are written in _bulk format as json, so the file can be replayed with replay
+ * or sent to Elasticsearch as it is, ex.: curl -XPOST host:9200/_bulk --data-binary @file
+ *
+ * Every write is forced to disk before it returns, a document in this file is not lost
+ * and its task does not have to be processed again.
+ *
+ * Workers and replay may run in different processes, they are coordinated with a lock on file.lock:
+ * a write opens the file under the lock, so it never appends to a file moved aside by a replay,
+ * and replay moves the file only while it holds the lock.
+ * A file being replayed is locked too, a second replay of the same file is refused.
+ */
+public class DeadLetterFile implements Closeable {
+    private static final Logger logger = Logger.getLogger(DeadLetterFile.class.getName());
+
+    private final Path file;
+    private final Path lockFile;
+    private final BulkBuffer buffer;
+    private long count;
+
+    /**
+     * DeadLetterFile object constructor, file is created on the first write
+     * @param file path of dead letter file
+     */
+    public DeadLetterFile(Path file) {
+        this.file = file;
+        this.lockFile = Paths.get(file + ".lock");
+        this.buffer = new BulkBuffer(1024);
+    }
+
+    /**
+     * Appends a document
+     * @param indexableContent document with index, type, optional id and fields
+     * @throws IOException when document can not be written
+     */
+    public synchronized void write(IndexableContent indexableContent) throws IOException {
+        buffer.clear();
+        buffer.add(indexableContent);
+        append(buffer.bytes().toBytes());
+        buffer.clear();
+        count++;
+    }
+
+    /**
+     * Sends documents in the file to Elasticsearch
+     * File is moved aside first, documents failing again are appended to a new file.
+     * Position after every sent batch is kept in file.replay.offset, a replay stopped before
+     * it finishes is continued by the next replay from there. Only the batch being sent when it stopped
+     * is sent again, its documents without an id are indexed twice.
+     * @param client Elasticsearch client
+     * @param batchSize number of documents in a bulk request
+     * @return number of documents indexed
+     * @throws IOException when file can not be read or written, or it is replayed by another process
+     */
+    public long replay(Client client, int batchSize) throws IOException {
+        Path replaying = Paths.get(file + ".replay");
+        Path offsetFile = Paths.get(file + ".replay.offset");
+        synchronized (this) {
+            if (!Files.exists(replaying)) {
+                if (!Files.exists(file)) {
+                    return 0;
+                }
+                // writers append under the same lock, nothing is written to the file after it is moved
+                try (FileChannel lockChannel = openLock()) {
+                    FileLock lock = lockChannel.lock();
+                    try {
+                        Files.move(file, replaying, StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        lock.release();
+                    }
+                }
+            }
+        }
+        long documents = 0;
+        long indexed = 0;
+        // reader closes the locked channel, closing another channel of the file would release the lock
+        FileChannel channel = FileChannel.open(replaying, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try (InputStream in = new BufferedInputStream(Channels.newInputStream(channel))) {
+            if (tryLock(channel) == null) {
+                throw new IOException("Dead letter file is replayed by another process: " + replaying);
+            }
+            if (!Files.exists(replaying)) {
+                // another replay finished it after this one opened it
+                return 0;
+            }
+            long position = readOffset(offsetFile);
+            if (position > 0) {
+                logger.info("Replay of " + replaying + " is continued at byte " + position);
+                channel.position(position);
+            }
+            List<String> lines = new ArrayList<>(2 * batchSize);
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int length;
+            while ((length = readLine(in, line)) != -1) {
+                position += length;
+                if (line.size() == 0) {
+                    continue;
+                }
+                lines.add(new String(line.toByteArray(), StandardCharsets.UTF_8));
+                if (lines.size() == 2 * batchSize) {
+                    documents += batchSize;
+                    indexed += send(client, lines);
+                    lines.clear();
+                    writeOffset(offsetFile, position);
+                }
+            }
+            if (lines.size() % 2 != 0) {
+                logger.warn("Incomplete document at the end of " + replaying + " is kept");
+                append(lines.subList(lines.size() - 1, lines.size()));
+                lines.remove(lines.size() - 1);
+            }
+            if (!lines.isEmpty()) {
+                documents += lines.size() / 2;
+                indexed += send(client, lines);
+            }
+            // deleted while it is locked, a waiting replay does not read it again
+            // offset first, so an offset never belongs to a later file
+            Files.deleteIfExists(offsetFile);
+            Files.delete(replaying);
+        }
+        logger.info("Replayed " + indexed + " documents of " + file + ", " + (documents - indexed)
+                + " failed again");
+        return indexed;
+    }
+
+    /**
+     * @return number of documents written since this object is created, including failed replays
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Files are opened for every write, nothing is kept open
+     */
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * Sends action and source line pairs as a bulk request, failed documents are written back
+     * @return number of documents indexed
+     */
+    private long send(Client client, List<String> lines) throws IOException {
+        BulkResponse response;
+        try {
+            BulkRequest request = new BulkRequest();
+            request.add(new BytesArray(join(lines)), null, null);
+            response = client.bulk(request).actionGet();
+        } catch (Exception e) {
+            logger.error("Replay of " + lines.size() / 2 + " documents failed, they are written back:", e);
+            append(lines);
+            return 0;
+        }
+        long indexed = 0;
+        for (BulkItemResponse item : response) {
+            if (item.isFailed()) {
+                logger.error("Replay failed: " + item.getIndex() + "/" + item.getType() + "/"
+                        + item.getId() + " " + item.getFailureMessage());
+                int line = 2 * item.getItemId();
+                append(lines.subList(line, line + 2));
+            } else {
+                indexed++;
+            }
+        }
+        return indexed;
+    }
+
+    private synchronized void append(List<String> lines) throws IOException {
+        append(join(lines));
+        count += lines.size() / 2;
+    }
+
+    private static byte[] join(List<String> lines) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String line : lines) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+            out.write('\n');
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Opens the file under the lock for every append, a file moved by a replay in another process
+     * is never appended to. Documents are written here only when they can not be indexed, so it is rare.
+     */
+    private synchronized void append(byte[] bytes) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        try (FileChannel lockChannel = openLock()) {
+            FileLock lock = lockChannel.lock();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                ByteBuffer data = ByteBuffer.wrap(bytes);
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                channel.force(false);
+            } finally {
+                lock.release();
+            }
+        } catch (OverlappingFileLockException e) {
+            throw new IOException("Dead letter file is locked by another object in this process: " + file, e);
+        }
+    }
+
+    /**
+     * Reads a line without its line end, position of the file can be counted in bytes
+     * @param line receives the line
+     * @return number of bytes read including the line end, -1 at the end of file
+     */
+    private static int readLine(InputStream in, ByteArrayOutputStream line) throws IOException {
+        line.reset();
+        int length = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            length++;
+            if (b == '\n') {
+                break;
+            }
+            line.write(b);
+        }
+        if (length == 0) {
+            return -1;
+        }
+        byte[] bytes = line.toByteArray();
+        if (bytes.length > 0 && bytes[bytes.length - 1] == '\r') {
+            line.reset();
+            line.write(bytes, 0, bytes.length - 1);
+        }
+        return length;
+    }
+
+    /**
+     * @return position saved by a stopped replay, 0 when there is none
+     */
+    private static long readOffset(Path offsetFile) throws IOException {
+        if (!Files.exists(offsetFile)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(offsetFile), StandardCharsets.UTF_8).trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid replay offset is ignored, file is replayed from the beginning: " + offsetFile);
+            return 0;
+        }
+    }
+
+    /**
+     * Replaces the offset file atomically, a stopped replay never leaves a partial offset
+     */
+    private static void writeOffset(Path offsetFile, long position) throws IOException {
+        Path temp = Paths.get(offsetFile + ".tmp");
+        Files.write(temp, Long.toString(position).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, offsetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private FileChannel openLock() throws IOException {
+        return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * @return lock or null when the file is locked by another process or object
+     */
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+}
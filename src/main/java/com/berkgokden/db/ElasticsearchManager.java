@@ -2,26 +2,24 @@ package com.berkgokden.db;
 
 import com.berkgokden.csv.IndexableContent;
 import org.apache.log4j.Logger;
-import org.elasticsearch.action.bulk.BulkRequest;
-import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
-import org.elasticsearch.action.index.IndexRequest;
-import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
-import org.elasticsearch.action.bulk.BackoffPolicy;
-import org.elasticsearch.action.bulk.BulkProcessor;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A helper class to hold Elasticsearch related objects and methods
@@ -39,7 +37,18 @@ public class ElasticsearchManager {
     }
 
     private Client client;
-    private BulkProcessor bulkProcessor;
+    private BulkIndexer bulkIndexer;
+    private XContentType contentType = XContentType.JSON;
+    private BulkController bulkController = new BulkController(
+            new ByteSizeValue(512, ByteSizeUnit.KB).bytes(),
+            new ByteSizeValue(16, ByteSizeUnit.MB).bytes(),
+            1,
+            4,
+            TimeValue.timeValueSeconds(2).millis());
+    private ContentHashIndex contentHashIndex;
+    private DeadLetterFile deadLetterFile;
+    private volatile BulkLoadMode bulkLoadMode;
+    private final AtomicLong skipped = new AtomicLong();
 
     private List<InetSocketTransportAddress> addresses;
 
@@ -78,46 +87,140 @@ public class ElasticsearchManager {
     }
 
     /**
-     * A method to ensure bulkprocessor is created and returned correctly
-     * Elasticseach BulkProcessor regularises the connection to db
-     * it handles connections, errors and retries
+     * A method to ensure bulk indexer is created and returned correctly
+     * BulkIndexer regularises the connection to db
+     * it writes documents directly into reusable bulk buffers, handles errors and retries
+     * bulk size and concurrency are adapted to the cluster by BulkController
      *
-     * @return BulkProcessor object
+     * @return BulkIndexer object
      */
-    private BulkProcessor getBulkProcessor() {
-        if (bulkProcessor == null) {
-            bulkProcessor = BulkProcessor.builder(
-                getClient(),
-                new BulkProcessor.Listener() {
-                    @Override
-                    public void beforeBulk(long executionId,
-                                           BulkRequest request) {
-                        logger.info("execution start: " + executionId);
+    private synchronized BulkIndexer getBulkIndexer() {
+        if (bulkIndexer == null) {
+            bulkIndexer = new BulkIndexer(getClient(),
+                    10000, // bulks are limited by bytes, this only caps tiny documents
+                    bulkController,
+                    TimeValue.timeValueSeconds(5).millis(),
+                    3,
+                    TimeValue.timeValueMillis(100).millis(),
+                    contentType);
+            bulkIndexer.setListener(new BulkIndexer.Listener() {
+                @Override
+                public void onSuccess(IndexableContent indexableContent) {
+                    // hash is recorded only when document is indexed, a failed one is sent again next time
+                    ContentHashIndex hashIndex = contentHashIndex;
+                    if (hashIndex != null) {
+                        hashIndex.put(indexableContent, indexableContent.getContentHash());
                     }
+                    indexableContent.indexed(true);
+                }
 
-                    @Override
-                    public void afterBulk(long executionId,
-                                          BulkRequest request,
-                                          BulkResponse response) {
-                        logger.info("execution stop: " + executionId);
-                    }
+                @Override
+                public void onFailure(IndexableContent indexableContent, String message) {
+                    // a temporary failure fails its task, the task is processed again later
+                    indexableContent.indexed(false);
+                }
 
-                    @Override
-                    public void afterBulk(long executionId,
-                                          BulkRequest request,
-                                          Throwable failure) {
-                        logger.error("execution failed: " + executionId, failure);
-                    }
-                })
-                .setBulkActions(100) // default is 1000, for this example 100 is better
-                .setBulkSize(new ByteSizeValue(1, ByteSizeUnit.GB))
-                .setFlushInterval(TimeValue.timeValueSeconds(5))
-                .setConcurrentRequests(1)
-                .setBackoffPolicy(
-                        BackoffPolicy.exponentialBackoff(TimeValue.timeValueMillis(100), 3))
-                .build();
+                @Override
+                public void onPermanentFailure(IndexableContent indexableContent, String message) {
+                    // a document kept in dead letter file does not fail its task
+                    indexableContent.indexed(writeDeadLetter(indexableContent));
+                }
+            });
+        }
+        return bulkIndexer;
+    }
+
+    /**
+     * Format of indexed documents, should be set before the first document is indexed
+     * SMILE and CBOR are smaller than JSON and cheaper to parse for Elasticsearch.
+     * @param contentType JSON, SMILE or CBOR
+     */
+    public void setContentType(XContentType contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * Limits of bulk size and concurrent bulk requests, should be set before the first document is indexed
+     * Default starts from 512KB bulks and 1 request, grows up to 16MB and 4 requests while bulks take less than 2s.
+     * @param bulkController floors and ceilings of bulk limits, see BulkController.fixed for constant limits
+     */
+    public void setBulkController(BulkController bulkController) {
+        this.bulkController = bulkController;
+    }
+
+    /**
+     * Documents with the same content as when they were indexed before are skipped when an index is set
+     * @param contentHashIndex local index of content hashes, null to index every document
+     */
+    public void setContentHashIndex(ContentHashIndex contentHashIndex) {
+        this.contentHashIndex = contentHashIndex;
+    }
+
+    /**
+     * Documents refused by Elasticsearch, ex.: with a mapping error, are appended to the file
+     * and they can be indexed later with replay. Documents failing for a busy or unavailable cluster
+     * are not written, their tasks fail and are processed again.
+     * @param deadLetterFile file of refused documents, null to fail tasks of refused documents
+     */
+    public void setDeadLetterFile(DeadLetterFile deadLetterFile) {
+        this.deadLetterFile = deadLetterFile;
+    }
+
+    /**
+     * Restores index settings left by a bulk load that did not finish and enables bulk load mode
+     * Client is created only when bulk load is enabled or a state file is left.
+     * In bulk load mode refresh is disabled and replicas are removed while documents come, see BulkLoadMode.
+     * Should be called before the first document is indexed.
+     * @param enabled true to tune settings of indices while documents are indexed
+     * @param stateFile local file of original settings
+     * @param idleTime milliseconds without documents after which settings are restored
+     * @param forceMergeSegments number of segments to merge indices into after restore, 0 to disable
+     * @throws IOException when state file can not be read
+     */
+    public void setBulkLoad(boolean enabled, Path stateFile, long idleTime, int forceMergeSegments)
+            throws IOException {
+        if (!enabled && !Files.exists(stateFile)) {
+            bulkLoadMode = null;
+            return;
         }
-        return bulkProcessor;
+        BulkLoadMode mode = new BulkLoadMode(getClient(), stateFile, idleTime, forceMergeSegments);
+        mode.recover();
+        bulkLoadMode = enabled ? mode : null;
+    }
+
+    /**
+     * Sends documents in the dead letter file to Elasticsearch again
+     * Documents failing again are kept in the file.
+     * @param batchSize number of documents in a bulk request
+     * @return number of documents indexed
+     * @throws IOException when dead letter file can not be read or written
+     */
+    public long replayDeadLetters(int batchSize) throws IOException {
+        if (deadLetterFile == null) {
+            throw new IllegalStateException("Dead letter file is not set");
+        }
+        return deadLetterFile.replay(getClient(), batchSize);
+    }
+
+    private boolean writeDeadLetter(IndexableContent indexableContent) {
+        DeadLetterFile file = deadLetterFile;
+        if (file == null) {
+            return false;
+        }
+        try {
+            file.write(indexableContent);
+            return true;
+        } catch (IOException e) {
+            logger.error("Dead letter can not be written: " + file.getFile(), e);
+            return false;
+        }
+    }
+
+    /**
+     * @return number of documents skipped since their content is not changed
+     */
+    public long getSkipped() {
+        return skipped.get();
     }
 
     /**
@@ -142,18 +245,31 @@ public class ElasticsearchManager {
     }
 
     /**
-     * A method to add indexableContent to BulkProcessor to be indexed in Elasticsearch
+     * A method to add indexableContent to BulkIndexer to be indexed in Elasticsearch
      * Note that object is not indexed instantly,
      * it waits for more object, a period of time or explicit flush,
      * whichever comes first.
+     * Document is skipped when its content is not changed, see setContentHashIndex.
+     * Completion of the document is reported when its bulk item is done, see IndexableContent.getCompletion.
      *
      * @param indexableContent the object ro be indexed
      */
     public void index(IndexableContent indexableContent) {
-        getBulkProcessor().add(new IndexRequest(indexableContent.getIndex(),
-                indexableContent.getType(),
-                indexableContent.getId())
-                .source(indexableContent.getContent()));
+        ContentHashIndex hashIndex = contentHashIndex;
+        if (hashIndex != null) {
+            long hash = hashIndex.hash(indexableContent);
+            if (hashIndex.isUnchanged(indexableContent, hash)) {
+                skipped.incrementAndGet();
+                indexableContent.indexed(true);
+                return;
+            }
+            indexableContent.setContentHash(hash);
+        }
+        BulkLoadMode mode = bulkLoadMode;
+        if (mode != null) {
+            mode.touch(indexableContent.getIndex());
+        }
+        getBulkIndexer().add(indexableContent);
     }
 
 }
@@ -0,0 +1,224 @@
+package com.berkgokden.ftp;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A disk backed cache of downloaded files
+ * A redelivered task, ex.: after a nack, reads the file from local disk
+ * instead of downloading it from the ftp server again.
+ *
+ * Entries are keyed by source, remote path, size and modification time,
+ * so a file uploaded again is a different entry.
+ * Total size is bounded by capacity, least recently used files are evicted first.
+ *
+ * Files are moved into the cache folder with an atomic rename, a crash never leaves
+ * a half written entry. Cache folder is scanned on startup and last modified time
+ * of files is used as the access order, it is updated on every hit.
+ */
+public class DownloadCache {
+    private static final Logger logger = Logger.getLogger(DownloadCache.class.getName());
+    private static final String DATA_SUFFIX = ".data";
+    private static final String TEMP_SUFFIX = ".part";
+
+    private final Path directory;
+    private final long capacity;
+    private final LinkedHashMap<String, Long> entries;
+    private long size;
+
+    /**
+     * DownloadCache object constructor, existing entries in the directory are loaded
+     * @param directory local cache folder, created when needed
+     * @param capacity maximum total size of cached files in bytes
+     * @throws IOException when cache folder can not be read
+     */
+    public DownloadCache(Path directory, long capacity) throws IOException {
+        this.directory = directory;
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        Files.createDirectories(directory);
+        load();
+    }
+
+    /**
+     * @return cache key of a version of a remote file
+     */
+    public static String key(String source, String path, long size, long timeStamp) {
+        return source + "\n" + path + "\n" + size + "\n" + timeStamp;
+    }
+
+    /**
+     * Opens a cached file
+     * @param key cache key
+     * @return file content, null when it is not cached
+     * @throws IOException when cached file can not be read
+     */
+    public synchronized InputStream open(String key) throws IOException {
+        String name = fileName(key);
+        if (entries.get(name) == null) {
+            return null;
+        }
+        Path file = directory.resolve(name);
+        try {
+            InputStream in = new MappedFileInputStream(file, false);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return in;
+        } catch (IOException e) {
+            logger.warn("Dropping unreadable cache entry " + file, e);
+            remove(name);
+            return null;
+        }
+    }
+
+    /**
+     * Moves a downloaded file into the cache and opens it
+     * Least recently used entries are evicted to make room.
+     * A file larger than capacity is not cached, it is deleted when returned stream is closed.
+     * @param key cache key
+     * @param file complete downloaded file, it is moved
+     * @return file content
+     * @throws IOException when file can not be moved or read
+     */
+    public synchronized InputStream put(String key, Path file) throws IOException {
+        long length = Files.size(file);
+        if (length > capacity) {
+            return new MappedFileInputStream(file, true);
+        }
+        String name = fileName(key);
+        remove(name);
+        while (size + length > capacity && !entries.isEmpty()) {
+            Iterator<String> eldest = entries.keySet().iterator();
+            String evicted = eldest.next();
+            logger.debug("Evicting cache entry " + evicted);
+            remove(evicted);
+        }
+        Path target = directory.resolve(name);
+        moveAtomically(file, target);
+        entries.put(name, length);
+        size += length;
+        return new MappedFileInputStream(target, false);
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Reads existing entries in last modified order and drops leftovers of interrupted moves
+     */
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(DATA_SUFFIX)) {
+                    files.add(file);
+                }
+            }
+        }
+        Map<Path, Long> modified = new LinkedHashMap<>();
+        for (Path file : files) {
+            modified.put(file, Files.getLastModifiedTime(file).toMillis());
+        }
+        files.sort((a, b) -> Long.compare(modified.get(a), modified.get(b)));
+        for (Path file : files) {
+            long length = Files.size(file);
+            entries.put(file.getFileName().toString(), length);
+            size += length;
+        }
+        while (size > capacity && !entries.isEmpty()) {
+            remove(entries.keySet().iterator().next());
+        }
+        logger.info("Download cache loaded from " + directory + " entries: " + entries.size() + " bytes: " + size);
+    }
+
+    private void remove(String name) throws IOException {
+        Long length = entries.remove(name);
+        if (length != null) {
+            size -= length;
+            Files.deleteIfExists(directory.resolve(name));
+        }
+    }
+
+    /**
+     * Renames file into the cache folder, a file on another file system is copied
+     * to a temporary file first so the entry appears only when it is complete.
+     * File content is forced to disk before the rename and the folder after it,
+     * so an entry found after a crash is never empty or partial.
+     */
+    private void moveAtomically(Path file, Path target) throws IOException {
+        try {
+            force(file);
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+            Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+            force(temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.delete(file);
+        }
+        forceDirectory(target.getParent());
+    }
+
+    private static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Forces a rename in the folder to disk, some platforms can not open a folder and it is skipped
+     */
+    private static void forceDirectory(Path folder) {
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("Folder can not be forced to disk: " + folder, e);
+        }
+    }
+
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2 + DATA_SUFFIX.length());
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.append(DATA_SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.berkgokden.ftp;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of logged in FTPClient sessions
+ * An FTPClient has a single control channel so it can not be shared between threads.
+ * Every user borrows a session, uses it alone and gives it back.
+ *
+ * Number of borrowed sessions is limited by maxSize.
+ * Idle sessions are kept alive with NOOP commands and broken ones are evicted,
+ * at least minSize idle sessions are kept ready as long as idle and borrowed sessions stay within maxSize.
+ * Sessions released after the pool is closed are disconnected.
+ * Sessions are validated with a NOOP before they are borrowed.
+ */
+public class FtpConnectionPool {
+    private static final Logger logger = Logger.getLogger(FtpConnectionPool.class.getName());
+
+    private final FtpManager ftpManager;
+    private final LinkedBlockingDeque<FTPClient> idle;
+    private final Semaphore permits;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeout;
+    private final ScheduledExecutorService keepAliveExecutor;
+    private volatile boolean closed;
+
+    /**
+     * FtpConnectionPool object constructor
+     *
+     * @param ftpManager connection settings are read from ftpManager when a session is created
+     * @param minSize number of idle sessions to keep ready
+     * @param maxSize maximum number of sessions in use at the same time
+     * @param keepAliveInterval time in milliseconds between NOOP checks of idle sessions
+     * @param borrowTimeout time in milliseconds to wait for a free session
+     */
+    public FtpConnectionPool(FtpManager ftpManager, int minSize, int maxSize,
+                             long keepAliveInterval, long borrowTimeout) {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size min: " + minSize + " max: " + maxSize);
+        }
+        this.ftpManager = ftpManager;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowTimeout = borrowTimeout;
+        this.idle = new LinkedBlockingDeque<>();
+        this.permits = new Semaphore(maxSize, true);
+        this.keepAliveExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ftp-pool-keepalive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.keepAliveExecutor.scheduleWithFixedDelay(this::keepAlive,
+                keepAliveInterval, keepAliveInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a logged in session, blocks while maxSize sessions are in use
+     * Borrowed session should be given back with release or invalidate
+     * @return a validated FTPClient
+     * @throws IOException when no session is available or connection fails
+     */
+    public FTPClient borrow() throws IOException {
+        if (closed) {
+            throw new IOException("Ftp pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+                throw new IOException("No ftp session available in " + borrowTimeout + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for ftp session", e);
+        }
+        try {
+            FTPClient client;
+            while ((client = idle.pollFirst()) != null) {
+                if (isValid(client)) {
+                    return client;
+                }
+                logger.info("Evicting broken ftp session");
+                destroy(client);
+            }
+            return create();
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Give a healthy session back to the pool
+     * @param client session borrowed from this pool
+     */
+    public void release(FTPClient client) {
+        if (closed || !client.isConnected()) {
+            destroy(client);
+        } else {
+            idle.offerFirst(client);
+            if (closed) {
+                // pool is closed while the session is given back
+                clear();
+            }
+        }
+        permits.release();
+    }
+
+    /**
+     * Give a broken session back to the pool, it is disconnected and dropped
+     * @param client session borrowed from this pool
+     */
+    public void invalidate(FTPClient client) {
+        destroy(client);
+        permits.release();
+    }
+
+    /**
+     * Disconnect all idle sessions, borrowed sessions are closed when they are released
+     */
+    public void clear() {
+        FTPClient client;
+        while ((client = idle.pollFirst()) != null) {
+            destroy(client);
+        }
+    }
+
+    /**
+     * Stop keep alive checks and disconnect all idle sessions
+     */
+    public void close() {
+        closed = true;
+        keepAliveExecutor.shutdownNow();
+        clear();
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Sends NOOP on every idle session to keep server from dropping them,
+     * evicts the ones that do not answer and tops up to minSize.
+     */
+    private void keepAlive() {
+        try {
+            List<FTPClient> checked = new ArrayList<>();
+            FTPClient client;
+            while ((client = idle.pollLast()) != null) {
+                if (isValid(client)) {
+                    checked.add(client);
+                } else {
+                    logger.info("Evicting broken idle ftp session");
+                    destroy(client);
+                }
+            }
+            for (FTPClient validClient : checked) {
+                idle.offerLast(validClient);
+            }
+            // borrowed sessions count against maxSize too
+            while (!closed && idle.size() < minSize
+                    && idle.size() + maxSize - permits.availablePermits() < maxSize) {
+                idle.offerLast(create());
+            }
+        } catch (Exception e) {
+            logger.error("Ftp pool keep alive failed:", e);
+        }
+    }
+
+    private FTPClient create() throws IOException {
+        FTPClient client = new FTPClient();
+        logger.info("Connect to " + ftpManager.getServer() + ":" + ftpManager.getPort());
+        try {
+            client.connect(ftpManager.getServer(), ftpManager.getPort());
+            if (!FTPReply.isPositiveCompletion(client.getReplyCode())) {
+                throw new IOException("Ftp server refused connection: " + client.getReplyString());
+            }
+            if (!client.login(ftpManager.getUser(), ftpManager.getPassword())) {
+                throw new IOException("Ftp login failed: " + client.getReplyString());
+            }
+            client.enterLocalPassiveMode();
+            // bz2 files must not go through ascii line ending conversion
+            client.setFileType(FTP.BINARY_FILE_TYPE);
+        } catch (IOException e) {
+            destroy(client);
+            throw e;
+        }
+        return client;
+    }
+
+    private static boolean isValid(FTPClient client) {
+        try {
+            return client.isConnected() && client.sendNoOp();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void destroy(FTPClient client) {
+        try {
+            if (client.isConnected()) {
+                client.disconnect();
+            }
+        } catch (IOException e) {
+            logger.debug("Ftp disconnect failed:", e);
+        }
+    }
+}
@@ -1,66 +1,143 @@
 package com.berkgokden.ftp;
 
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import com.berkgokden.compress.ParallelBZip2InputStream;
 import org.apache.commons.net.ftp.*;
 import org.apache.log4j.Logger;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A helper class to hold Ftp Server related objects and methods
  * This class designed as Singleton
  * since there can be a single FtpManager instance
- * in this project
+ * for each ftp server in this project
+ *
+ * FtpManager is thread safe, every operation works on its own
+ * FTPClient session borrowed from a FtpConnectionPool.
+ *
+ * Files can be downloaded into a local spool file, a failed transfer is resumed
+ * from the spooled length with a REST command instead of starting from byte zero.
+ * Partial spool files are kept between calls, so a redelivered task resumes too.
  */
 public class FtpManager {
     private static final Logger logger = Logger.getLogger(FtpManager.class.getName());
 
-    private static FtpManager ourInstance = new FtpManager();
+    private static final String DEFAULT_NAME = "default";
+    // RFC 3659 reply to a transfer command when the restart marker is invalid
+    private static final int INVALID_RESTART_MARKER = 554;
+
+    private static FtpManager ourInstance = new FtpManager(DEFAULT_NAME);
+    private static final Map<String, FtpManager> namedInstances = new ConcurrentHashMap<>();
+    private static final Set<Path> activeDownloads = ConcurrentHashMap.newKeySet();
 
     public static FtpManager getInstance() {
         return ourInstance;
     }
 
+    /**
+     * Each ftp source has its own FtpManager and connection pool
+     * @param name name of the ftp source, "default" returns getInstance()
+     * @return FtpManager registered with given name, created when needed
+     */
+    public static FtpManager getInstance(String name) {
+        if (DEFAULT_NAME.equals(name)) {
+            return ourInstance;
+        }
+        return namedInstances.computeIfAbsent(name, FtpManager::new);
+    }
+
+    private final String name;
     private String server;
     private String user;
     private String password;
     private int port = 21;
-    private FTPClient ftp;
+    private int minConnections = 1;
+    private int maxConnections = 4;
+    private long keepAliveInterval = 30000L;
+    private long borrowTimeout = 60000L;
+    private Path spoolDirectory = Paths.get(System.getProperty("java.io.tmpdir"), "ftp2db-spool");
+    private int maxRetries = 5;
+    private long retryDelay = 1000L;
+    private DownloadCache downloadCache;
+    private FtpConnectionPool pool;
+    // pool of every borrowed client
+    private final Map<FTPClient, FtpConnectionPool> owners = new ConcurrentHashMap<>();
 
-    private FtpManager() {
-        ftp = new FTPClient();
+    private FtpManager(String name) {
+        this.name = name;
     }
 
     /**
-     * This method checks and created connection when needed.
-     * @throws IOException
+     * This method returns the connection pool and creates it when needed.
+     * Pool settings are applied when the pool is created.
+     * @return current connection pool
      */
-    public void connect() throws IOException {
-        if (!ftp.isConnected()) {
-            logger.info("Connect to "+server+":"+port);
-            ftp.connect(server, port);
-            ftp.login(user, password);
-            ftp.enterLocalPassiveMode();
+    public synchronized FtpConnectionPool getPool() {
+        if (pool == null) {
+            pool = new FtpConnectionPool(this, minConnections, maxConnections,
+                    keepAliveInterval, borrowTimeout);
         }
+        return pool;
     }
 
     /**
-     * Disconnect method can be used to retrigger connect method
-     * after a server, user, password change
-     * @throws IOException
+     * Disconnect method can be used to recreate connections
+     * after a server, user, password or pool setting change
      */
-    public void disconnect() throws IOException {
-        ftp.disconnect();
+    public synchronized void disconnect() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
     }
 
     /**
-     * This method returns current ftpClient and connect automatically
-     * @return current ftpClient instance
+     * This method borrows a logged in ftpClient from the pool and connect automatically
+     * Returned client is used by a single thread
+     * and it should be given back with returnFtp or invalidateFtp
+     * @return a free ftpClient instance
      * @throws IOException
      */
-    public FTPClient getFtp() throws IOException {
-        connect();
-        return ftp;
+    public FTPClient borrowFtp() throws IOException {
+        FtpConnectionPool current = getPool();
+        FTPClient client = current.borrow();
+        owners.put(client, current);
+        return client;
+    }
+
+    /**
+     * Give a borrowed ftpClient back to the pool
+     * @param client ftpClient taken by borrowFtp
+     */
+    public void returnFtp(FTPClient client) {
+        ownerOf(client).release(client);
+    }
+
+    /**
+     * Give a borrowed ftpClient back to the pool after an io failure
+     * client is disconnected and a new one is created when needed
+     * @param client ftpClient taken by borrowFtp
+     */
+    public void invalidateFtp(FTPClient client) {
+        ownerOf(client).invalidate(client);
+    }
+
+    /**
+     * A client borrowed before disconnect goes back to its own closed pool, not to a new one
+     */
+    private FtpConnectionPool ownerOf(FTPClient client) {
+        FtpConnectionPool owner = owners.remove(client);
+        return owner == null ? getPool() : owner;
     }
 
     public String getServer() {
@@ -79,27 +156,387 @@ public class FtpManager {
         this.user = user;
     }
 
+    String getPassword() {
+        return password;
+    }
+
     public void setPassword(String password) {
         this.password = password;
     }
 
     /**
      * Download a file from FtpServer
+     * File goes through the spool so a failed transfer is resumed.
      * @param filename path of file in the remote server
-     * @return file content as byte[]
+     * @return file content as byte[], null when download fails
      */
     public byte[] getFile(String filename) {
         logger.info("File will be downloaded: "+filename);
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
         try {
-            this.getFtp().retrieveFile(filename, stream);
-            return stream.toByteArray();
+            Path spoolFile = downloadToSpool(filename);
+            try {
+                return Files.readAllBytes(spoolFile);
+            } finally {
+                Files.deleteIfExists(spoolFile);
+            }
         } catch (IOException e) {
             logger.error("Ftp File Download Failed:", e);
         }
         return null;
     }
 
+    /**
+     * Download a file into the spool and open it as a memory-mapped stream
+     * Spool file is deleted when the stream is closed.
+     * @param filename path of file in the remote server
+     * @return file content as InputStream
+     * @throws IOException when download fails after all retries
+     */
+    public InputStream getSpooledFileStream(String filename) throws IOException {
+        return new MappedFileInputStream(downloadToSpool(filename), true);
+    }
+
+    /**
+     * Open a version of a remote file, it is read from the download cache when it is there
+     * Otherwise file is downloaded into the spool and moved into the cache,
+     * so a redelivered task does not download it again.
+     * Without a cache or a known size and timestamp this is same as getSpooledFileStream.
+     * @param filename path of file in the remote server
+     * @param size remote file size, -1 when it is not known
+     * @param timeStamp remote file modification time, -1 when it is not known
+     * @return file content as InputStream
+     * @throws IOException when download fails after all retries
+     */
+    public InputStream getCachedFileStream(String filename, long size, long timeStamp) throws IOException {
+        DownloadCache cache = downloadCache;
+        if (cache == null || size < 0 || timeStamp < 0) {
+            return getSpooledFileStream(filename);
+        }
+        String key = DownloadCache.key(name, filename, size, timeStamp);
+        InputStream cached = cache.open(key);
+        if (cached != null) {
+            logger.info("File read from download cache: " + filename);
+            return cached;
+        }
+        return cache.put(key, downloadToSpool(filename));
+    }
+
+    /**
+     * Download a file into a local spool file
+     * A transfer that fails is resumed from the current spool length after retryDelay,
+     * at most maxRetries times in a row without any progress.
+     * When all retries fail the partial file is kept, next call for the same file
+     * resumes from it as long as the remote modification time did not change.
+     * @param filename path of file in the remote server
+     * @return path of the complete spool file, caller should delete it when done
+     * @throws IOException when download fails after all retries
+     */
+    public Path downloadToSpool(String filename) throws IOException {
+        String modificationTime = getModificationTime(filename);
+        Path partFile = getSpoolFile(filename, modificationTime);
+        Files.createDirectories(partFile.getParent());
+        String baseName = partFile.getFileName().toString().replaceFirst("\\.part$", "");
+        if (!activeDownloads.add(partFile)) {
+            // same file is already being downloaded by another thread, do not share its part file
+            Path tempPartFile = Files.createTempFile(partFile.getParent(), baseName + ".", ".part");
+            try {
+                return download(filename, tempPartFile, baseName);
+            } finally {
+                Files.deleteIfExists(tempPartFile);
+            }
+        }
+        try {
+            return download(filename, partFile, baseName);
+        } finally {
+            activeDownloads.remove(partFile);
+        }
+    }
+
+    private Path download(String filename, Path partFile, String baseName) throws IOException {
+        int failures = 0;
+        while (true) {
+            long offset = Files.exists(partFile) ? Files.size(partFile) : 0L;
+            try {
+                if (transfer(filename, partFile, offset) >= 0) {
+                    // every caller gets its own complete file, it is deleted by the caller
+                    Path spoolFile = Files.createTempFile(partFile.getParent(), baseName + ".", ".spool");
+                    Files.move(partFile, spoolFile, StandardCopyOption.REPLACE_EXISTING);
+                    logger.info("File downloaded: " + filename + " resumed at: " + offset);
+                    return spoolFile;
+                }
+                // server refused the restart offset, download from the beginning
+                logger.info("Ftp server refused to resume " + filename + " at " + offset);
+                Files.deleteIfExists(partFile);
+            } catch (FileNotFoundException e) {
+                // only a 550 or 553 reply, the file is gone
+                Files.deleteIfExists(partFile);
+                throw e;
+            } catch (IOException e) {
+                long spooled = Files.exists(partFile) ? Files.size(partFile) : 0L;
+                if (spooled > offset) {
+                    failures = 0;
+                }
+                if (++failures > maxRetries) {
+                    throw new IOException("Ftp File Download Failed after " + maxRetries + " retries: "
+                            + filename + " spooled: " + spooled, e);
+                }
+                logger.warn("Ftp File Download Failed at " + spooled + " will resume: " + filename, e);
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while resuming " + filename, ie);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends remote file content from offset to the part file
+     * @return number of appended bytes, -1 when the server refuses the offset
+     */
+    private long transfer(String filename, Path partFile, long offset) throws IOException {
+        FTPClient client = this.borrowFtp();
+        boolean healthy = false;
+        try (FileChannel out = FileChannel.open(partFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            out.position(offset);
+            out.truncate(offset);
+            // REST is sent right before RETR by the client
+            client.setRestartOffset(offset);
+            InputStream in = client.retrieveFileStream(filename);
+            if (in == null) {
+                int reply = client.getReplyCode();
+                if (reply == FTPReply.FILE_UNAVAILABLE || reply == FTPReply.FILE_NAME_NOT_ALLOWED) {
+                    healthy = true;
+                    throw new FileNotFoundException("Ftp File Not Found: " + client.getReplyString());
+                }
+                if (offset > 0 && isRestartRefused(reply)) {
+                    healthy = true;
+                    return -1L;
+                }
+                // any other reply is retried, part file is kept
+                throw new IOException("Ftp File Stream Failed: " + client.getReplyString());
+            }
+            long transferred = 0L;
+            byte[] buffer = new byte[64 * 1024];
+            ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+            try {
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    wrapped.clear().limit(n);
+                    while (wrapped.hasRemaining()) {
+                        out.write(wrapped);
+                    }
+                    transferred += n;
+                }
+            } finally {
+                in.close();
+            }
+            if (!client.completePendingCommand()) {
+                throw new IOException("Ftp File Transfer Failed: " + client.getReplyString());
+            }
+            healthy = true;
+            return transferred;
+        } finally {
+            client.setRestartOffset(0L);
+            if (healthy) {
+                this.returnFtp(client);
+            } else {
+                this.invalidateFtp(client);
+            }
+        }
+    }
+
+    /**
+     * @return true when reply means the server does not support the restart offset,
+     * REST is not implemented or the marker is invalid
+     */
+    private static boolean isRestartRefused(int reply) {
+        return reply == FTPReply.UNRECOGNIZED_COMMAND
+                || reply == FTPReply.SYNTAX_ERROR_IN_ARGUMENTS
+                || reply == FTPReply.COMMAND_NOT_IMPLEMENTED
+                || reply == FTPReply.COMMAND_NOT_IMPLEMENTED_FOR_PARAMETER
+                || reply == INVALID_RESTART_MARKER;
+    }
+
+    /**
+     * @return remote modification time as returned by MDTM, empty when it is not supported
+     */
+    private String getModificationTime(String filename) {
+        FTPClient client = null;
+        try {
+            client = this.borrowFtp();
+            String time = client.getModificationTime(filename);
+            this.returnFtp(client);
+            return time == null ? "" : time.trim();
+        } catch (IOException e) {
+            if (client != null) {
+                this.invalidateFtp(client);
+            }
+            return "";
+        }
+    }
+
+    /**
+     * Spool files mirror the remote path under spoolDirectory/name
+     * Remote modification time is part of the file name so a partial file of
+     * an older upload is never resumed.
+     */
+    Path getSpoolFile(String filename, String modificationTime) throws IOException {
+        Path base = spoolDirectory.resolve(name).toAbsolutePath().normalize();
+        String relative = filename.replaceFirst("^/+", "");
+        String suffix = modificationTime.isEmpty() ? "" : "." + modificationTime.replaceAll("[^0-9]", "");
+        Path file = base.resolve(relative + suffix + ".part").normalize();
+        if (!file.startsWith(base)) {
+            throw new IOException("Invalid remote file name: " + filename);
+        }
+        return file;
+    }
+
+    /**
+     * Open a download stream from FtpServer
+     * Data is read directly from the data connection so the file is never
+     * held in memory as a whole. The stream must be closed to finish the
+     * transfer, otherwise the control connection stays busy.
+     * @param filename path of file in the remote server
+     * @return file content as InputStream
+     * @throws IOException when the transfer can not be started or completed
+     */
+    public InputStream getFileStream(String filename) throws IOException {
+        logger.info("File will be streamed: "+filename);
+        final FTPClient client = this.borrowFtp();
+        InputStream in;
+        try {
+            in = client.retrieveFileStream(filename);
+        } catch (IOException e) {
+            this.invalidateFtp(client);
+            throw e;
+        }
+        if (in == null) {
+            String reply = client.getReplyString();
+            this.returnFtp(client);
+            throw new IOException("Ftp File Stream Failed: " + reply);
+        }
+        return new FilterInputStream(in) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                // completePendingCommand waits for a reply so it can be called once
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                boolean completed = false;
+                try {
+                    super.close();
+                    completed = client.completePendingCommand();
+                } finally {
+                    if (completed) {
+                        returnFtp(client);
+                    } else {
+                        invalidateFtp(client);
+                    }
+                }
+                if (!completed) {
+                    throw new IOException("Ftp File Transfer Failed: " + client.getReplyString());
+                }
+            }
+        };
+    }
+
+    /**
+     * Open a download stream from a position of a file on FtpServer
+     * Transfer is started with a REST offset. Stream can be closed before the end of file,
+     * the transfer is aborted and the ftp session is dropped then.
+     * @param filename path of file in the remote server
+     * @param offset position to start reading from
+     * @return file content from offset as InputStream
+     * @throws IOException when the transfer can not be started or completed
+     */
+    public InputStream getFileStream(String filename, long offset) throws IOException {
+        logger.info("File will be streamed from " + offset + ": " + filename);
+        final FTPClient client = this.borrowFtp();
+        InputStream in;
+        try {
+            client.setRestartOffset(offset);
+            in = client.retrieveFileStream(filename);
+        } catch (IOException e) {
+            this.invalidateFtp(client);
+            throw e;
+        } finally {
+            client.setRestartOffset(0L);
+        }
+        if (in == null) {
+            String reply = client.getReplyString();
+            this.returnFtp(client);
+            throw new IOException("Ftp File Stream Failed: " + reply);
+        }
+        return new FilterInputStream(in) {
+            private boolean closed;
+            private boolean ended;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                ended |= b == -1;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int off, int len) throws IOException {
+                int n = super.read(buffer, off, len);
+                ended |= n == -1;
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (!ended) {
+                    // server replies to an aborted transfer at any time, session is not reused
+                    try {
+                        super.close();
+                    } finally {
+                        invalidateFtp(client);
+                    }
+                    return;
+                }
+                boolean completed = false;
+                try {
+                    super.close();
+                    completed = client.completePendingCommand();
+                } finally {
+                    if (completed) {
+                        returnFtp(client);
+                    } else {
+                        invalidateFtp(client);
+                    }
+                }
+                if (!completed) {
+                    throw new IOException("Ftp File Transfer Failed: " + client.getReplyString());
+                }
+            }
+        };
+    }
+
+    /**
+     * A helper function to uncompress a bz2 compressed stream on the fly
+     * bz2 blocks are uncompressed in parallel on the common ForkJoinPool.
+     * Closing returned stream closes the given stream too.
+     *
+     * @param in compressed bz2 data as InputStream
+     * @return uncompressed data as InputStream
+     * @throws IOException when the bz2 header can not be read
+     */
+    public static InputStream uncompress(InputStream in) throws IOException {
+        return new ParallelBZip2InputStream(in);
+    }
+
     /**
      * A helper function to uncompress bz2 compressed byte[]
      * TODO: this method is not directly ftp related move to another class
@@ -109,10 +546,8 @@ public class FtpManager {
      * @throws IOException
      */
     public static byte[] uncompress(byte[] data) throws IOException {
-        InputStream fin = new ByteArrayInputStream(data);
-        BufferedInputStream in = new BufferedInputStream(fin);
         ByteArrayOutputStream out = new ByteArrayOutputStream();
-        BZip2CompressorInputStream bzIn = new BZip2CompressorInputStream(in);
+        InputStream bzIn = uncompress(new ByteArrayInputStream(data));
         final byte[] buffer = new byte[1024];
         int n = 0;
         while (-1 != (n = bzIn.read(buffer))) {
@@ -123,6 +558,54 @@ public class FtpManager {
         return out.toByteArray();
     }
 
+    public String getName() {
+        return name;
+    }
+
+    public Path getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    /**
+     * @param spoolDirectory local folder of downloaded and partially downloaded files
+     */
+    public void setSpoolDirectory(Path spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    public DownloadCache getDownloadCache() {
+        return downloadCache;
+    }
+
+    /**
+     * @param downloadCache cache of downloaded files, null disables caching
+     */
+    public void setDownloadCache(DownloadCache downloadCache) {
+        this.downloadCache = downloadCache;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param maxRetries number of resume attempts after failures without any progress
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    /**
+     * @param retryDelay time in milliseconds to wait before resuming a failed download
+     */
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
     public int getPort() {
         return port;
     }
@@ -130,4 +613,42 @@ public class FtpManager {
     public void setPort(int port) {
         this.port = port;
     }
+
+    public int getMinConnections() {
+        return minConnections;
+    }
+
+    public void setMinConnections(int minConnections) {
+        this.minConnections = minConnections;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public long getKeepAliveInterval() {
+        return keepAliveInterval;
+    }
+
+    /**
+     * @param keepAliveInterval time in milliseconds between NOOP commands on idle connections
+     */
+    public void setKeepAliveInterval(long keepAliveInterval) {
+        this.keepAliveInterval = keepAliveInterval;
+    }
+
+    public long getBorrowTimeout() {
+        return borrowTimeout;
+    }
+
+    /**
+     * @param borrowTimeout time in milliseconds to wait when all connections are in use
+     */
+    public void setBorrowTimeout(long borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
 }
@@ -1,22 +1,42 @@
 package com.berkgokden.ftp;
 
+import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
-import org.apache.commons.net.ftp.FTPListParseEngine;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 /**
  * A class to track file changed in a ftp server folder.
  * FtpObserver checks given folder for newer files.
  * FtpObserver extends Thread so it can run in the background
  *
+ * Folder is listed with a ListingStrategy, by default the cheapest one the server supports.
+ * Newer files are passed to the consumer on a separate dispatcher thread
+ * so a slow consumer does not hold the listing.
+ * Optionally a file is passed only after its size and timestamp stop changing,
+ * and a passed file is passed again when it is uploaded again with a different size.
+ * Polling period is adaptive, it is doubled up to maxPeriod while the folder is idle
+ * and it is set back to period when new files arrive.
+ *
  * Example usage:
  * new FtpObserver(ftpManager, folder, period, timeStamp,
  *  ftpFile -> {System.out.println(ftpFile.getName());}
@@ -25,16 +45,34 @@ import java.util.stream.Collectors;
 public class FtpObserver extends Thread {
     private static final Logger logger = Logger.getLogger(FtpObserver.class.getName());
     private static final long FIVE_MINUTES_IN_MILLIS = 5*60*1000;
+    private static final int DISPATCH_QUEUE_SIZE = 10000;
 
     private Long period;
+    private Long maxPeriod;
     private String folder;
-    private Map<Long, Set<String>> fileMap;
+    private SeenFileIndex seenFiles;
     private Long timeStamp;
-    private boolean keepAlive;
+    private volatile boolean keepAlive;
     private Consumer<FTPFile> consumer;
     private FtpManager ftpManager;
+    private FtpObserverCheckpoint checkpoint;
+    private volatile boolean checkpointDirty;
+    private int pageSize = 100;
+    private ListingStrategy listingStrategy;
+    private boolean recursive;
+    private final Map<String, ListingStrategy> subFolderStrategies;
+    private final Map<String, Set<String>> subFolders;
+    private int stablePolls;
+    private final Map<String, UploadCandidate> candidates;
+    // recently published files by publish time, oldest first
+    private final LinkedHashMap<String, Long> recentlyPublished;
+    private long recheckWindow = FIVE_MINUTES_IN_MILLIS;
+    private int recheckLimit = 10;
 
-    private final static int PAGE_SIZE = 10;
+    private final BlockingQueue<FTPFile> dispatchQueue;
+    private final Map<String, Long> pending;
+    // dispatched files kept out of the checkpoint until they are released
+    private final Map<String, Long> held;
 
     /**
      * FtpObserver object construnctor
@@ -48,11 +86,49 @@ public class FtpObserver extends Thread {
     public FtpObserver(FtpManager ftpManager,String folder, Long period, Long timeStamp, Consumer<FTPFile> consumer) {
         this.ftpManager = ftpManager;
         this.period = period;
+        this.maxPeriod = period;
         this.folder = folder;
         this.timeStamp = timeStamp;
         this.consumer = consumer;
-        this.fileMap = new HashMap<>();
+        this.seenFiles = new SeenFileIndex(100000);
         this.keepAlive = true;
+        this.dispatchQueue = new LinkedBlockingQueue<>(DISPATCH_QUEUE_SIZE);
+        this.pending = new ConcurrentHashMap<>();
+        this.held = new ConcurrentHashMap<>();
+        this.subFolderStrategies = new HashMap<>();
+        this.subFolders = new HashMap<>();
+        this.candidates = new HashMap<>();
+        this.recentlyPublished = new LinkedHashMap<>();
+    }
+
+    /**
+     * Consumer should be set before the observer is started
+     * @param consumer consumer function to process newer files.
+     */
+    public void setConsumer(Consumer<FTPFile> consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Keeps a dispatched file out of the checkpoint until it is released,
+     * ex.: a split file whose parts are not all done, so it is published again after a restart.
+     * Should be called by the consumer while the file is dispatched.
+     * @param name file name as passed to the consumer
+     * @param fileTimeStamp timestamp of the file
+     */
+    public void hold(String name, long fileTimeStamp) {
+        held.put(name, fileTimeStamp);
+    }
+
+    /**
+     * Lets a held file into the checkpoint, checkpoint is saved after the next poll
+     * @param name file name as passed to the consumer
+     * @param fileTimeStamp timestamp of the file
+     */
+    public void release(String name, long fileTimeStamp) {
+        if (held.remove(name, fileTimeStamp)) {
+            checkpointDirty = true;
+        }
     }
 
     public Long getPeriod() {
@@ -63,6 +139,18 @@ public class FtpObserver extends Thread {
         this.period = period;
     }
 
+    public Long getMaxPeriod() {
+        return maxPeriod;
+    }
+
+    /**
+     * Polling period grows up to maxPeriod while no new files are found
+     * @param maxPeriod time in miliseconds, use same value as period to disable backoff
+     */
+    public void setMaxPeriod(Long maxPeriod) {
+        this.maxPeriod = maxPeriod;
+    }
+
     public String getFolder() {
         return folder;
     }
@@ -71,6 +159,89 @@ public class FtpObserver extends Thread {
         this.folder = folder;
     }
 
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @param pageSize number of listing entries parsed at a time when LIST command is used
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    /**
+     * When recursive, files in subfolders are observed too
+     * and names passed to the consumer are paths relative to the observed folder ex.: 2016-07-29/file.csv.bz2
+     * @param recursive true to observe subfolders
+     */
+    public void setRecursive(boolean recursive) {
+        this.recursive = recursive;
+    }
+
+    public int getStablePolls() {
+        return stablePolls;
+    }
+
+    /**
+     * A file is passed to the consumer only after its size and timestamp stay the same
+     * for given number of polls, so files that are still being uploaded are not downloaded.
+     * @param stablePolls number of polls, 0 passes files as soon as they are found
+     */
+    public void setStablePolls(int stablePolls) {
+        this.stablePolls = stablePolls;
+    }
+
+    public long getRecheckWindow() {
+        return recheckWindow;
+    }
+
+    /**
+     * Listing strategies that list details only for new names (NLST) fetch details of files published
+     * within this time again on every poll, so a file uploaded again soon is found.
+     * A file uploaded again later is not found by them.
+     * @param recheckWindow time in milliseconds after publishing, 0 to disable
+     */
+    public void setRecheckWindow(long recheckWindow) {
+        this.recheckWindow = recheckWindow;
+    }
+
+    public int getRecheckLimit() {
+        return recheckLimit;
+    }
+
+    /**
+     * @param recheckLimit maximum number of recently published files fetched again on every poll
+     */
+    public void setRecheckLimit(int recheckLimit) {
+        this.recheckLimit = recheckLimit;
+    }
+
+    public ListingStrategy getListingStrategy() {
+        return listingStrategy;
+    }
+
+    /**
+     * Listing strategy should be set before the observer is started
+     * When it is not set, it is chosen from features of the server on first poll.
+     * @param listingStrategy strategy to list the folder
+     */
+    public void setListingStrategy(ListingStrategy listingStrategy) {
+        this.listingStrategy = listingStrategy;
+    }
+
+    /**
+     * Seen file index should be set before the observer is started
+     * @param maxEntries maximum number of file names kept to detect already published files
+     */
+    public void setMaxSeenFiles(int maxEntries) {
+        this.seenFiles = new SeenFileIndex(maxEntries);
+    }
+
     /**
      * Thread.run method allows FtpObserver to run in the background
      * This metod checks periodically ftp server for newer files.
@@ -82,53 +253,315 @@ public class FtpObserver extends Thread {
      */
     @Override
     public void run() {
+        loadCheckpoint();
+        Thread dispatcher = new Thread(this::dispatch, getName() + "-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
 
+        long currentPeriod = period;
         while (isKeepAlive()) {
             try {
-                FTPListParseEngine engine = ftpManager.getFtp().initiateListParsing(folder);
-
-                long newTimeStamp = timeStamp;
-                while (engine.hasNext()) {
-                    FTPFile[] files = engine.getNext(PAGE_SIZE);
-                    for (FTPFile file : files) {
-                        long fileTimeStamp = file.getTimestamp().getTimeInMillis();
-                        // Check for files that are added after the recorder time stamp
-                        // 5 minutes buffer added to timestamp
-                        if (file.isFile()
-                                && fileTimeStamp > timeStamp - FIVE_MINUTES_IN_MILLIS) {
-                            fileMap.putIfAbsent(fileTimeStamp,
-                                    new HashSet<>());
-                            boolean added = fileMap.get(fileTimeStamp)
-                                    .add(file.getName());
-
-                            if (added) {
-                                newTimeStamp = fileTimeStamp;
-                                consumer.accept(file);
-                            }
-                        }
-                    }
+                int newFiles = poll();
+                // keep polling fast while uploads are waiting to settle
+                if (newFiles > 0 || !candidates.isEmpty()) {
+                    currentPeriod = period;
+                } else {
+                    currentPeriod = Math.min(currentPeriod * 2, maxPeriod);
                 }
-                if (timeStamp != newTimeStamp) {
-                    logger.debug("new timestamp: " + timeStamp);
-                }
-                timeStamp = newTimeStamp;
-                // Delete older files otherwise fileMap size is not bounded.
-                fileMap = fileMap.entrySet().stream()
-                        .filter(map -> map.getKey() >= timeStamp)
-                        .collect(Collectors.toMap(p -> p.getKey(), p -> p.getValue()));
-
-                try {
-                    Thread.sleep(this.period);
-                } catch (InterruptedException e) {
-                    logger.error("Ftp Observer Interrupeted while in sleep state", e);
+                if (newFiles > 0 || checkpointDirty) {
+                    saveCheckpoint();
                 }
             } catch (Exception ex) {
                 // continue forever
                 logger.error("Observer ftp connection failed:", ex);
             }
+            try {
+                Thread.sleep(currentPeriod);
+            } catch (InterruptedException e) {
+                logger.error("Ftp Observer Interrupeted while in sleep state", e);
+            }
         }
     }
 
+    /**
+     * Lists the folder once and queues newer files for dispatch
+     * @return number of newer files found
+     */
+    private int poll() throws IOException, InterruptedException {
+        List<FTPFile> files = new ArrayList<>();
+        FTPClient client = ftpManager.borrowFtp();
+        try {
+            if (listingStrategy == null) {
+                listingStrategy = ListingStrategy.detect(client, pageSize);
+            }
+            listFolders(client, files);
+        } catch (IOException e) {
+            ftpManager.invalidateFtp(client);
+            throw e;
+        }
+        ftpManager.returnFtp(client);
+
+        // Check for files that are added after the recorder time stamp
+        // 5 minutes buffer added to timestamp
+        long threshold = timeStamp - FIVE_MINUTES_IN_MILLIS;
+        long newTimeStamp = timeStamp;
+        int newFiles = 0;
+        Set<String> listed = new HashSet<>();
+        for (FTPFile file : files) {
+            if (!file.isFile()) {
+                continue;
+            }
+            String name = file.getName();
+            long fileTimeStamp = file.getTimestamp().getTimeInMillis();
+            long size = file.getSize();
+            if (fileTimeStamp <= threshold) {
+                continue;
+            }
+            listed.add(name);
+            if (seenFiles.contains(name, fileTimeStamp)) {
+                long publishedSize = seenFiles.getSize(name);
+                if (publishedSize < 0 || size < 0 || publishedSize == size) {
+                    continue;
+                }
+                logger.info("File is uploaded again with a different size: " + name);
+            }
+            if (!isStable(name, fileTimeStamp, size)) {
+                continue;
+            }
+            candidates.remove(name);
+            seenFiles.add(name, fileTimeStamp, size);
+            addRecentlyPublished(name);
+            newFiles++;
+            newTimeStamp = Math.max(newTimeStamp, fileTimeStamp);
+            pending.put(name, fileTimeStamp);
+            dispatchQueue.put(file);
+        }
+        // files that are deleted while uploading are forgotten
+        candidates.keySet().retainAll(listed);
+        if (timeStamp != newTimeStamp) {
+            logger.debug("new timestamp: " + newTimeStamp);
+        }
+        timeStamp = newTimeStamp;
+        // Delete older files otherwise index size is not bounded.
+        seenFiles.removeOlderThan(timeStamp - FIVE_MINUTES_IN_MILLIS);
+        return newFiles;
+    }
+
+    /**
+     * Records size and timestamp of a file and checks if they stayed the same
+     * for stablePolls polls.
+     * @return true when file can be passed to consumer
+     */
+    private boolean isStable(String name, long fileTimeStamp, long size) {
+        if (stablePolls <= 0) {
+            return true;
+        }
+        UploadCandidate candidate = candidates.get(name);
+        if (candidate == null || candidate.timeStamp != fileTimeStamp || candidate.size != size) {
+            candidates.put(name, new UploadCandidate(fileTimeStamp, size));
+            return false;
+        }
+        candidate.unchangedPolls++;
+        return candidate.unchangedPolls >= stablePolls;
+    }
+
+    private void addRecentlyPublished(String name) {
+        if (recheckWindow <= 0 || recheckLimit <= 0) {
+            return;
+        }
+        recentlyPublished.remove(name);
+        recentlyPublished.put(name, System.currentTimeMillis());
+        if (recentlyPublished.size() > recheckLimit) {
+            recentlyPublished.remove(recentlyPublished.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * @return files published within recheckWindow
+     */
+    private Collection<String> recentlyPublished() {
+        long threshold = System.currentTimeMillis() - recheckWindow;
+        Iterator<Long> publishTimes = recentlyPublished.values().iterator();
+        while (publishTimes.hasNext() && publishTimes.next() < threshold) {
+            publishTimes.remove();
+        }
+        return recentlyPublished.keySet();
+    }
+
+    /**
+     * Names of upload candidates and recently published files in a folder relative to the observed folder
+     * Details of these names are listed again by strategies that list only names once (NLST),
+     * so a file uploaded again with a different size is found.
+     */
+    private Set<String> recheckIn(String current, Collection<String> published) {
+        if (candidates.isEmpty() && published.isEmpty()) {
+            return Collections.emptySet();
+        }
+        String prefix = current.isEmpty() ? "" : current + "/";
+        Set<String> names = new HashSet<>();
+        addNamesIn(prefix, candidates.keySet(), names);
+        addNamesIn(prefix, published, names);
+        return names;
+    }
+
+    private static void addNamesIn(String prefix, Collection<String> paths, Set<String> names) {
+        for (String name : paths) {
+            if (name.startsWith(prefix) && name.indexOf('/', prefix.length()) < 0) {
+                names.add(name.substring(prefix.length()));
+            }
+        }
+    }
+
+    /**
+     * Lists observed folder and, when recursive, every known subfolder
+     * Subfolders are remembered because some listing strategies report a folder only once.
+     * Every folder has its own listing strategy instance.
+     * @param files files are added with names relative to observed folder
+     */
+    private void listFolders(FTPClient client, List<FTPFile> files) throws IOException {
+        Collection<String> published = recentlyPublished();
+        Deque<String> folders = new ArrayDeque<>();
+        folders.add("");
+        while (!folders.isEmpty()) {
+            String current = folders.poll();
+            List<FTPFile> entries;
+            if (current.isEmpty()) {
+                entries = listingStrategy.list(client, folder, recheckIn(current, published));
+            } else {
+                try {
+                    entries = subFolderStrategies
+                            .computeIfAbsent(current, k -> listingStrategy.newInstance())
+                            .list(client, ListingStrategy.resolve(folder, current), recheckIn(current, published));
+                } catch (IOException e) {
+                    if (!client.isConnected()) {
+                        throw e;
+                    }
+                    logger.warn("Subfolder could not be listed, it is dropped: " + current, e);
+                    forgetSubFolder(current);
+                    continue;
+                }
+            }
+            Set<String> children = subFolders.computeIfAbsent(current, k -> new HashSet<>());
+            for (FTPFile entry : entries) {
+                String name = current.isEmpty() ? entry.getName() : current + "/" + entry.getName();
+                if (entry.isFile()) {
+                    entry.setName(name);
+                    files.add(entry);
+                } else if (recursive && entry.isDirectory()
+                        && !".".equals(entry.getName()) && !"..".equals(entry.getName())) {
+                    children.add(name);
+                }
+            }
+            if (recursive) {
+                folders.addAll(children);
+            }
+        }
+    }
+
+    private void forgetSubFolder(String subFolder) {
+        String prefix = subFolder + "/";
+        subFolders.keySet().removeIf(key -> key.equals(subFolder) || key.startsWith(prefix));
+        subFolderStrategies.keySet().removeIf(key -> key.equals(subFolder) || key.startsWith(prefix));
+        for (Set<String> children : subFolders.values()) {
+            children.remove(subFolder);
+        }
+    }
+
+    /**
+     * Dispatcher thread body, passes queued files to the consumer one by one
+     */
+    private void dispatch() {
+        while (isKeepAlive() || !dispatchQueue.isEmpty()) {
+            FTPFile file;
+            try {
+                file = dispatchQueue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                logger.error("Ftp Observer dispatcher interrupted", e);
+                return;
+            }
+            if (file == null) {
+                continue;
+            }
+            try {
+                consumer.accept(file);
+            } catch (RuntimeException e) {
+                logger.error("Consumer failed for " + file.getName(), e);
+            } finally {
+                pending.remove(file.getName(), file.getTimestamp().getTimeInMillis());
+            }
+        }
+    }
+
+    /**
+     * Restores timestamp and file list from checkpoint when one exists
+     * otherwise constructor values are kept.
+     */
+    private void loadCheckpoint() {
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            if (checkpoint.load()) {
+                timeStamp = checkpoint.getTimeStamp();
+                seenFiles.addAll(checkpoint.getFileMap(), checkpoint.getSizes());
+            }
+        } catch (IOException e) {
+            logger.error("Checkpoint could not be loaded, starting from timestamp " + timeStamp, e);
+        }
+    }
+
+    /**
+     * Writes current timestamp and file list to checkpoint after a poll cycle
+     * Files that are not dispatched yet or held are left out and timestamp is kept below them,
+     * so they are found again after a restart.
+     */
+    private void saveCheckpoint() {
+        if (checkpoint == null) {
+            return;
+        }
+        long savedTimeStamp = timeStamp;
+        Map<Long, Set<String>> savedFiles = seenFiles.asMap();
+        Map<String, Long> notDispatched = new TreeMap<>(pending);
+        notDispatched.putAll(held);
+        if (!notDispatched.isEmpty()) {
+            savedFiles = new TreeMap<>();
+            for (Map.Entry<Long, Set<String>> entry : seenFiles.asMap().entrySet()) {
+                Set<String> names = new HashSet<>(entry.getValue());
+                names.removeAll(notDispatched.keySet());
+                savedFiles.put(entry.getKey(), names);
+            }
+            for (Long fileTimeStamp : notDispatched.values()) {
+                savedTimeStamp = Math.min(savedTimeStamp, fileTimeStamp);
+            }
+        }
+        Map<String, Long> sizes = new HashMap<>();
+        for (Set<String> names : savedFiles.values()) {
+            for (String name : names) {
+                sizes.put(name, seenFiles.getSize(name));
+            }
+        }
+        // held files do not need a save until they are released
+        checkpointDirty = !pending.isEmpty();
+        try {
+            checkpoint.save(savedTimeStamp, savedFiles, sizes);
+        } catch (IOException e) {
+            checkpointDirty = true;
+            logger.error("Checkpoint could not be saved:", e);
+        }
+    }
+
+    public FtpObserverCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Checkpoint should be set before the observer is started
+     * @param checkpoint checkpoint to restore state from and save state to after every poll
+     */
+    public void setCheckpoint(FtpObserverCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
     public boolean isKeepAlive() {
         return keepAlive;
     }
@@ -158,4 +591,18 @@ public class FtpObserver extends Thread {
     public void setFtpManager(FtpManager ftpManager) {
         this.ftpManager = ftpManager;
     }
+
+    /**
+     * Size and timestamp of a file that is waiting to be stable
+     */
+    private static class UploadCandidate {
+        private final long timeStamp;
+        private final long size;
+        private int unchangedPolls;
+
+        private UploadCandidate(long timeStamp, long size) {
+            this.timeStamp = timeStamp;
+            this.size = size;
+        }
+    }
 }
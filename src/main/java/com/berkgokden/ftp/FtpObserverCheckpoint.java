@@ -0,0 +1,171 @@
+package com.berkgokden.ftp;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A small local file to keep FtpObserver state between restarts
+ * It holds the timestamp of the newest published file and names of recently published files
+ * so an observer restart only publishes files that are actually new.
+ *
+ * File format is plain text:
+ * first line is the timestamp, every other line is "fileTimeStamp TAB fileSize TAB fileName",
+ * size is -1 when it is not known. Lines of older files without size, "fileTimeStamp TAB fileName", are read too.
+ *
+ * File is written to a temporary file first and moved over the old one,
+ * a crash while saving leaves the previous checkpoint in place.
+ */
+public class FtpObserverCheckpoint {
+    private static final Logger logger = Logger.getLogger(FtpObserverCheckpoint.class.getName());
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path path;
+    private long timeStamp;
+    private Map<Long, Set<String>> fileMap;
+    private Map<String, Long> sizes;
+
+    /**
+     * FtpObserverCheckpoint object constructor
+     * @param path local file path of the checkpoint, it is created on first save
+     */
+    public FtpObserverCheckpoint(Path path) {
+        this.path = path;
+        this.timeStamp = 0L;
+        this.fileMap = new HashMap<>();
+        this.sizes = new HashMap<>();
+    }
+
+    /**
+     * Reads checkpoint file if it exists
+     * @return true when a checkpoint is loaded, false when there is no checkpoint yet
+     * @throws IOException when checkpoint file exists but can not be read
+     */
+    public boolean load() throws IOException {
+        if (!Files.exists(path)) {
+            logger.info("No checkpoint found at " + path);
+            return false;
+        }
+        Map<Long, Set<String>> loadedFileMap = new HashMap<>();
+        Map<String, Long> loadedSizes = new HashMap<>();
+        long loadedTimeStamp;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Checkpoint file is empty: " + path);
+            }
+            try {
+                loadedTimeStamp = Long.parseLong(line.trim());
+                while ((line = reader.readLine()) != null) {
+                    int separator = line.indexOf('\t');
+                    if (separator > 0) {
+                        long fileTimeStamp = Long.parseLong(line.substring(0, separator));
+                        String name = line.substring(separator + 1);
+                        int sizeSeparator = name.indexOf('\t');
+                        if (sizeSeparator > 0 && isNumber(name.substring(0, sizeSeparator))) {
+                            long size = Long.parseLong(name.substring(0, sizeSeparator));
+                            name = name.substring(sizeSeparator + 1);
+                            if (size >= 0) {
+                                loadedSizes.put(name, size);
+                            }
+                        }
+                        loadedFileMap.computeIfAbsent(fileTimeStamp, k -> new HashSet<>()).add(name);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Checkpoint file is corrupted: " + path, e);
+            }
+        }
+        this.timeStamp = loadedTimeStamp;
+        this.fileMap = loadedFileMap;
+        this.sizes = loadedSizes;
+        logger.info("Checkpoint loaded from " + path + " timestamp: " + timeStamp);
+        return true;
+    }
+
+    /**
+     * Writes given state atomically to checkpoint file, sizes of files are not known
+     * @param timeStamp timestamp of the newest published file
+     * @param fileMap names of published files grouped by their timestamps
+     * @throws IOException when checkpoint can not be written
+     */
+    public void save(long timeStamp, Map<Long, Set<String>> fileMap) throws IOException {
+        save(timeStamp, fileMap, Collections.emptyMap());
+    }
+
+    /**
+     * Writes given state atomically to checkpoint file
+     * @param timeStamp timestamp of the newest published file
+     * @param fileMap names of published files grouped by their timestamps
+     * @param sizes sizes of published files, a file uploaded again with another size is published again
+     * @throws IOException when checkpoint can not be written
+     */
+    public void save(long timeStamp, Map<Long, Set<String>> fileMap, Map<String, Long> sizes) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BufferedWriter writer = new BufferedWriter(
+                    new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            writer.write(Long.toString(timeStamp));
+            writer.newLine();
+            for (Map.Entry<Long, Set<String>> entry : fileMap.entrySet()) {
+                for (String name : entry.getValue()) {
+                    if (name.indexOf('\n') >= 0) {
+                        continue;
+                    }
+                    writer.write(entry.getKey() + "\t" + sizes.getOrDefault(name, -1L) + "\t" + name);
+                    writer.newLine();
+                }
+            }
+            writer.flush();
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.timeStamp = timeStamp;
+        this.fileMap = fileMap;
+        this.sizes = sizes;
+    }
+
+    private static boolean isNumber(String value) {
+        try {
+            Long.parseLong(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    public Map<Long, Set<String>> getFileMap() {
+        return fileMap;
+    }
+
+    /**
+     * @return sizes of published files by name, files with unknown size are not in the map
+     */
+    public Map<String, Long> getSizes() {
+        return sizes;
+    }
+}
@@ -0,0 +1,44 @@
+package com.berkgokden.ftp;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPListParseEngine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lists a folder with LIST command and parses every entry
+ * Works with every server but timestamp precision and cost depend on the LIST format,
+ * every call parses the whole folder.
+ */
+public class ListListingStrategy implements ListingStrategy {
+    private final int pageSize;
+
+    /**
+     * @param pageSize number of listing entries parsed at a time
+     */
+    public ListListingStrategy(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public List<FTPFile> list(FTPClient client, String folder) throws IOException {
+        FTPListParseEngine engine = client.initiateListParsing(folder);
+        List<FTPFile> files = new ArrayList<>();
+        while (engine.hasNext()) {
+            for (FTPFile file : engine.getNext(pageSize)) {
+                if (file != null) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    @Override
+    public ListingStrategy newInstance() {
+        return new ListListingStrategy(pageSize);
+    }
+}
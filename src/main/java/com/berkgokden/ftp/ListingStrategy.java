@@ -0,0 +1,104 @@
+package com.berkgokden.ftp;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A way of listing a ftp folder for FtpObserver
+ * Implementations return files that may be new since the previous call,
+ * FtpObserver filters them with its timestamp and seen file index.
+ * A strategy can keep state between calls so an instance belongs to a single folder.
+ *
+ * detect method picks the cheapest strategy supported by the server.
+ */
+public interface ListingStrategy {
+
+    /**
+     * Lists files of a folder that may be new
+     * @param client a session borrowed for this call
+     * @param folder folder path ex.: /myfolder use "" for root folder.
+     * @return files with name, type and timestamp, size is set when server reports it
+     * @throws IOException when listing fails
+     */
+    List<FTPFile> list(FTPClient client, String folder) throws IOException;
+
+    /**
+     * Lists files of a folder that may be new or that should be checked again
+     * Strategies that report a name only once return given names again while they exist,
+     * others return every file anyway.
+     * @param client a session borrowed for this call
+     * @param folder folder path ex.: /myfolder use "" for root folder.
+     * @param recheck names in this folder whose details should be fetched again
+     * @return files with name, type and timestamp, size is set when server reports it
+     * @throws IOException when listing fails
+     */
+    default List<FTPFile> list(FTPClient client, String folder, Set<String> recheck) throws IOException {
+        return list(client, folder);
+    }
+
+    /**
+     * Creates a strategy of the same kind and settings without any state
+     * to list another folder.
+     * @return a new strategy instance
+     */
+    ListingStrategy newInstance();
+
+    /**
+     * Chooses a listing strategy from the FEAT reply of the server
+     * MLSD is used when server supports MLST,
+     * NLST with MDTM and SIZE for new names when server supports both,
+     * NLST tells files from folders with SIZE, and LIST otherwise.
+     *
+     * @param client a connected session
+     * @param pageSize number of entries parsed at a time when LIST is used
+     * @return a new strategy instance
+     * @throws IOException when FEAT command fails
+     */
+    static ListingStrategy detect(FTPClient client, int pageSize) throws IOException {
+        Logger logger = Logger.getLogger(ListingStrategy.class.getName());
+        ListingStrategy strategy;
+        if (client.hasFeature("MLST")) {
+            strategy = new MlsdListingStrategy();
+        } else if (client.hasFeature("MDTM") && client.hasFeature("SIZE")) {
+            strategy = new NlstListingStrategy(pageSize);
+        } else {
+            strategy = new ListListingStrategy(pageSize);
+        }
+        logger.info("Listing strategy: " + strategy.getClass().getSimpleName());
+        return strategy;
+    }
+
+    /**
+     * Creates a strategy by name
+     * @param name one of list, mlsd, nlst
+     * @param pageSize number of entries parsed at a time when LIST is used
+     * @return a new strategy instance
+     */
+    static ListingStrategy forName(String name, int pageSize) {
+        switch (name.toLowerCase()) {
+            case "list":
+                return new ListListingStrategy(pageSize);
+            case "mlsd":
+                return new MlsdListingStrategy();
+            case "nlst":
+                return new NlstListingStrategy(pageSize);
+            default:
+                throw new IllegalArgumentException("Unknown listing strategy: " + name);
+        }
+    }
+
+    /**
+     * Joins a folder and a file name into a remote path
+     */
+    static String resolve(String folder, String name) {
+        if (folder == null || folder.isEmpty()) {
+            return name;
+        }
+        return folder.endsWith("/") ? folder + name : folder + "/" + name;
+    }
+}
@@ -0,0 +1,135 @@
+package com.berkgokden.ftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An InputStream over a memory-mapped local file
+ * File is mapped in windows so files larger than 2GB can be read
+ * and only the window being read is kept mapped.
+ * Reads are plain memory copies from the page cache, there is no read system call per buffer.
+ *
+ * Optionally file is deleted when the stream is closed, ex.: a spooled download.
+ */
+public class MappedFileInputStream extends InputStream {
+    public static final long DEFAULT_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long length;
+    private final long windowSize;
+    private final boolean deleteOnClose;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private boolean closed;
+
+    /**
+     * MappedFileInputStream object constructor
+     * @param path local file to read
+     * @param windowSize number of bytes mapped at a time
+     * @param deleteOnClose when true file is deleted on close
+     * @throws IOException when file can not be opened
+     */
+    public MappedFileInputStream(Path path, long windowSize, boolean deleteOnClose) throws IOException {
+        if (windowSize <= 0 || windowSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid window size: " + windowSize);
+        }
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.length = channel.size();
+        this.windowSize = windowSize;
+        this.deleteOnClose = deleteOnClose;
+        this.windowStart = 0L;
+    }
+
+    public MappedFileInputStream(Path path, boolean deleteOnClose) throws IOException {
+        this(path, DEFAULT_WINDOW_SIZE, deleteOnClose);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextWindow()) {
+            return -1;
+        }
+        return window.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextWindow()) {
+            return -1;
+        }
+        int n = Math.min(len, window.remaining());
+        window.get(buffer, offset, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || closed) {
+            return 0L;
+        }
+        long position = position();
+        long skipped = Math.min(n, length - position);
+        windowStart = position + skipped;
+        window = null;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed) {
+            return 0;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, length - position());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        window = null;
+        channel.close();
+        if (deleteOnClose) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    private long position() {
+        return window == null ? windowStart : windowStart + window.position();
+    }
+
+    /**
+     * Maps next window when current one is consumed
+     * @return false at the end of file
+     */
+    private boolean nextWindow() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed: " + path);
+        }
+        if (window != null && window.hasRemaining()) {
+            return true;
+        }
+        long position = position();
+        if (position >= length) {
+            return false;
+        }
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, length - position));
+        return true;
+    }
+}
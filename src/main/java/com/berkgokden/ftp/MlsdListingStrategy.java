@@ -0,0 +1,33 @@
+package com.berkgokden.ftp;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lists a folder with MLSD command
+ * MLSD entries are machine readable facts with exact UTC timestamps and sizes,
+ * they are cheaper to parse than LIST lines whose format depends on the server.
+ */
+public class MlsdListingStrategy implements ListingStrategy {
+
+    @Override
+    public List<FTPFile> list(FTPClient client, String folder) throws IOException {
+        FTPFile[] entries = client.mlistDir(folder);
+        List<FTPFile> files = new ArrayList<>(entries.length);
+        for (FTPFile file : entries) {
+            if (file != null && (file.isDirectory() || file.getTimestamp() != null)) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    @Override
+    public ListingStrategy newInstance() {
+        return new MlsdListingStrategy();
+    }
+}
@@ -0,0 +1,115 @@
+package com.berkgokden.ftp;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPReply;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lists a folder with NLST and fetches details only for new names
+ * NLST returns names without any details so its reply is small and cheap to read.
+ * Names are compared with the names of the previous call,
+ * MDTM and SIZE commands are sent only for names that were not there before.
+ * A name whose details can not be fetched, ex.: MDTM fails while it is uploaded, is tried again next time.
+ * So poll cost grows with the number of new files instead of the folder size.
+ *
+ * Directories are reported only when their name is new.
+ * A file uploaded again with the same name is not noticed,
+ * unless its name is given in the recheck set.
+ *
+ * First call has no previous names, it uses a LIST
+ * to get timestamps of the existing files in one command.
+ */
+public class NlstListingStrategy implements ListingStrategy {
+    private static final Logger logger = Logger.getLogger(NlstListingStrategy.class.getName());
+
+    private final int pageSize;
+    private Set<String> knownNames;
+
+    /**
+     * @param pageSize number of entries parsed at a time by the first LIST
+     */
+    public NlstListingStrategy(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public List<FTPFile> list(FTPClient client, String folder) throws IOException {
+        return list(client, folder, Collections.emptySet());
+    }
+
+    @Override
+    public List<FTPFile> list(FTPClient client, String folder, Set<String> recheck) throws IOException {
+        if (knownNames == null) {
+            List<FTPFile> files = new ListListingStrategy(pageSize).list(client, folder);
+            knownNames = new HashSet<>();
+            for (FTPFile file : files) {
+                knownNames.add(file.getName());
+            }
+            return files;
+        }
+
+        String[] names = client.listNames(folder);
+        if (names == null) {
+            throw new IOException("NLST failed: " + client.getReplyString());
+        }
+        Set<String> currentNames = new HashSet<>(names.length * 2);
+        List<FTPFile> files = new ArrayList<>();
+        for (String path : names) {
+            // some servers return names with the folder prefix
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            if (!knownNames.contains(name) || recheck.contains(name)) {
+                FTPFile file = details(client, ListingStrategy.resolve(folder, name), name);
+                if (file == null) {
+                    // name stays unknown, so its details are fetched again on the next call
+                    continue;
+                }
+                files.add(file);
+            }
+            currentNames.add(name);
+        }
+        knownNames = currentNames;
+        return files;
+    }
+
+    /**
+     * Fetches timestamp and size of a single file
+     * A name without a size is reported as a directory.
+     * @return file details or null when timestamp of a file is not available
+     */
+    private static FTPFile details(FTPClient client, String path, String name) throws IOException {
+        FTPFile modified = client.mdtmFile(path);
+        FTPFile file = new FTPFile();
+        file.setName(name);
+        // SIZE is not allowed for directories
+        if (client.sendCommand("SIZE", path) != FTPReply.FILE_STATUS) {
+            file.setType(FTPFile.DIRECTORY_TYPE);
+            file.setTimestamp(modified == null ? null : modified.getTimestamp());
+            return file;
+        }
+        if (modified == null || modified.getTimestamp() == null) {
+            logger.debug("MDTM failed for " + path + ": " + client.getReplyString());
+            return null;
+        }
+        file.setType(FTPFile.FILE_TYPE);
+        file.setTimestamp(modified.getTimestamp());
+        try {
+            file.setSize(Long.parseLong(client.getReplyString().substring(4).trim()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            file.setSize(-1);
+        }
+        return file;
+    }
+
+    @Override
+    public ListingStrategy newInstance() {
+        return new NlstListingStrategy(pageSize);
+    }
+}
@@ -0,0 +1,180 @@
+package com.berkgokden.ftp;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A sorted index of files that are already seen by FtpObserver
+ * Files are kept in timestamp order so old entries can be dropped in place
+ * and a name lookup does not depend on the number of timestamps.
+ *
+ * A file is identified by its name and timestamp,
+ * a file uploaded again with the same name and a different timestamp is a new file.
+ * Index is bounded by maxEntries, oldest files are dropped first.
+ *
+ * This class is not thread safe.
+ */
+public class SeenFileIndex {
+    private final TreeMap<Long, Set<String>> byTimeStamp;
+    private final Map<String, SeenFile> byName;
+    private final int maxEntries;
+
+    /**
+     * SeenFileIndex object constructor
+     * @param maxEntries maximum number of files kept in the index
+     */
+    public SeenFileIndex(int maxEntries) {
+        this.byTimeStamp = new TreeMap<>();
+        this.byName = new HashMap<>();
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Adds a file with unknown size to the index
+     * @param name file name
+     * @param timeStamp file timestamp
+     * @return true when file was not seen before with this timestamp
+     */
+    public boolean add(String name, long timeStamp) {
+        return add(name, timeStamp, -1L);
+    }
+
+    /**
+     * Adds a file to the index
+     * @param name file name
+     * @param timeStamp file timestamp
+     * @param size file size, -1 when it is not known
+     * @return true when file was not seen before with this timestamp and size
+     */
+    public boolean add(String name, long timeStamp, long size) {
+        SeenFile previous = byName.put(name, new SeenFile(timeStamp, size));
+        if (previous != null) {
+            if (previous.timeStamp == timeStamp) {
+                return previous.size != size;
+            }
+            removeFromTimeStamp(previous.timeStamp, name);
+        }
+        byTimeStamp.computeIfAbsent(timeStamp, k -> new HashSet<>()).add(name);
+        while (byName.size() > maxEntries) {
+            removeOldest();
+        }
+        return true;
+    }
+
+    /**
+     * Adds all files of a map grouped by timestamp, ex.: a loaded checkpoint
+     * @param fileMap file names grouped by timestamp
+     */
+    public void addAll(Map<Long, Set<String>> fileMap) {
+        addAll(fileMap, Collections.emptyMap());
+    }
+
+    /**
+     * Adds all files of a map grouped by timestamp with their sizes, ex.: a loaded checkpoint
+     * @param fileMap file names grouped by timestamp
+     * @param sizes file sizes by name, a file without size has unknown size
+     */
+    public void addAll(Map<Long, Set<String>> fileMap, Map<String, Long> sizes) {
+        for (Map.Entry<Long, Set<String>> entry : fileMap.entrySet()) {
+            for (String name : entry.getValue()) {
+                add(name, entry.getKey(), sizes.getOrDefault(name, -1L));
+            }
+        }
+    }
+
+    /**
+     * @param name file name
+     * @return true when a file with this name is in the index
+     */
+    public boolean contains(String name) {
+        return byName.containsKey(name);
+    }
+
+    /**
+     * @param name file name
+     * @param timeStamp file timestamp
+     * @return true when this file is in the index with the same timestamp
+     */
+    public boolean contains(String name, long timeStamp) {
+        SeenFile seen = byName.get(name);
+        return seen != null && seen.timeStamp == timeStamp;
+    }
+
+    /**
+     * @param name file name
+     * @return size of the file when it was added, -1 when it is not known or not in the index
+     */
+    public long getSize(String name) {
+        SeenFile seen = byName.get(name);
+        return seen == null ? -1L : seen.size;
+    }
+
+    /**
+     * Drops files older than given timestamp
+     * @param timeStamp files with a smaller timestamp are removed
+     * @return number of removed files
+     */
+    public int removeOlderThan(long timeStamp) {
+        NavigableMap<Long, Set<String>> older = byTimeStamp.headMap(timeStamp, false);
+        int removed = 0;
+        for (Set<String> names : older.values()) {
+            for (String name : names) {
+                byName.remove(name);
+                removed++;
+            }
+        }
+        older.clear();
+        return removed;
+    }
+
+    public int size() {
+        return byName.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return a read only view of files grouped by timestamp in timestamp order
+     */
+    public Map<Long, Set<String>> asMap() {
+        return Collections.unmodifiableMap(byTimeStamp);
+    }
+
+    private void removeOldest() {
+        Map.Entry<Long, Set<String>> oldest = byTimeStamp.firstEntry();
+        Iterator<String> names = oldest.getValue().iterator();
+        byName.remove(names.next());
+        names.remove();
+        if (oldest.getValue().isEmpty()) {
+            byTimeStamp.remove(oldest.getKey());
+        }
+    }
+
+    private void removeFromTimeStamp(long timeStamp, String name) {
+        Set<String> names = byTimeStamp.get(timeStamp);
+        if (names != null) {
+            names.remove(name);
+            if (names.isEmpty()) {
+                byTimeStamp.remove(timeStamp);
+            }
+        }
+    }
+
+    private static class SeenFile {
+        private final long timeStamp;
+        private final long size;
+
+        private SeenFile(long timeStamp, long size) {
+            this.timeStamp = timeStamp;
+            this.size = size;
+        }
+    }
+}
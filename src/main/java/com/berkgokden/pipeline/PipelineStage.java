@@ -0,0 +1,116 @@
+package com.berkgokden.pipeline;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.BiConsumer;
+
+/**
+ * A stage of a pipeline with its own threads and a bounded input queue
+ * Submitting blocks while the queue is full, so a slow stage slows down
+ * the stages before it instead of piling up items in memory.
+ *
+ * Items that fail are passed to the error handler of the stage.
+ *
+ * @param <T> type of the items processed by this stage
+ */
+public class PipelineStage<T> {
+    private static final Logger logger = Logger.getLogger(PipelineStage.class.getName());
+
+    /**
+     * Work done by a stage for a single item
+     * @param <T> type of the items
+     */
+    @FunctionalInterface
+    public interface Processor<T> {
+        void process(T item) throws Exception;
+    }
+
+    private final String name;
+    private final BlockingQueue<T> queue;
+    private final Processor<T> processor;
+    private final BiConsumer<T, Exception> errorHandler;
+    private final List<Thread> threads;
+    private volatile boolean running;
+
+    /**
+     * PipelineStage object constructor, threads are started immediately
+     * @param name name of the stage, used in thread names
+     * @param threads number of threads processing items
+     * @param capacity maximum number of items waiting for a thread
+     * @param processor work done for each item
+     * @param errorHandler called with the item and the exception when processing fails
+     */
+    public PipelineStage(String name, int threads, int capacity,
+                         Processor<T> processor, BiConsumer<T, Exception> errorHandler) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.processor = processor;
+        this.errorHandler = errorHandler;
+        this.threads = new ArrayList<>(threads);
+        this.running = true;
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(this::work, "pipeline-" + name + "-" + i);
+            thread.setDaemon(true);
+            this.threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Adds an item to the queue of this stage, blocks while the queue is full
+     * @param item item to process
+     * @throws InterruptedException when interrupted while waiting for space
+     */
+    public void submit(T item) throws InterruptedException {
+        if (!running) {
+            throw new IllegalStateException("Pipeline stage is stopped: " + name);
+        }
+        queue.put(item);
+    }
+
+    /**
+     * Stops threads, items waiting in the queue are not processed
+     */
+    public void shutdown() {
+        running = false;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return number of items waiting for a thread
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void work() {
+        while (running) {
+            T item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                processor.process(item);
+            } catch (Exception e) {
+                logger.error("Pipeline stage " + name + " failed:", e);
+                try {
+                    errorHandler.accept(item, e);
+                } catch (RuntimeException ex) {
+                    logger.error("Pipeline stage " + name + " error handler failed:", ex);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.berkgokden.pipeline;
+
+import com.berkgokden.csv.IndexableContent;
+import com.berkgokden.csv.IndexingCompletion;
+import com.berkgokden.task.Task;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Worker pipeline: fetch, parse and index stages connected with bounded queues
+ * A file is downloaded while the one before it is parsed and the one before that is indexed,
+ * so throughput is limited by the slowest stage instead of the sum of all stages.
+ *
+ * Fetch stage opens a task as an uncompressed stream, ex.: downloads it into the spool.
+ * Parse stage reads the stream, decompression happens here, and passes documents in batches.
+ * Index stage hands documents to the indexer.
+ *
+ * A task is complete when all of its batches are handed to the indexer,
+ * it fails when any stage fails for it. Parse stage stops a failed task between batches
+ * and closes its stream, so the stream is only used by the parse thread.
+ * With awaitIndexing documents are tagged with an IndexingCompletion of their task
+ * and the task is complete only when the indexer reports all of them, see setAwaitIndexing.
+ */
+public class WorkerPipeline {
+    private static final Logger logger = Logger.getLogger(WorkerPipeline.class.getName());
+
+    /**
+     * Opens a task as an uncompressed stream
+     */
+    @FunctionalInterface
+    public interface Opener {
+        InputStream open(Task task) throws IOException;
+    }
+
+    /**
+     * Parses an uncompressed stream into documents
+     */
+    @FunctionalInterface
+    public interface Parser {
+        void parse(InputStream in, Consumer<IndexableContent> consumer) throws IOException;
+    }
+
+    /**
+     * Parses an uncompressed stream into batches of documents
+     * Batches can be passed from several threads at the same time, ex.: when chunks are parsed in parallel.
+     */
+    @FunctionalInterface
+    public interface BatchParser {
+        void parse(InputStream in, Consumer<List<IndexableContent>> batchConsumer) throws IOException;
+    }
+
+    private final Opener opener;
+    private final BatchParser parser;
+    private final Consumer<IndexableContent> indexer;
+    private final PipelineStage<Job> fetchStage;
+    private final PipelineStage<Job> parseStage;
+    private final PipelineStage<Batch> indexStage;
+    private volatile boolean awaitIndexing;
+
+    /**
+     * WorkerPipeline object constructor, stage threads are started immediately
+     * @param fetchThreads number of files downloaded at the same time
+     * @param fetchCapacity number of tasks waiting for download
+     * @param parseThreads number of files parsed at the same time
+     * @param parseCapacity number of downloaded files waiting for a parser
+     * @param indexThreads number of threads handing documents to the indexer
+     * @param indexCapacity number of document batches waiting for the indexer
+     * @param batchSize number of documents in a batch
+     */
+    public WorkerPipeline(Opener opener, Parser parser, Consumer<IndexableContent> indexer,
+                          int fetchThreads, int fetchCapacity,
+                          int parseThreads, int parseCapacity,
+                          int indexThreads, int indexCapacity,
+                          int batchSize) {
+        this(opener, batches(parser, batchSize), indexer,
+                fetchThreads, fetchCapacity, parseThreads, parseCapacity, indexThreads, indexCapacity);
+    }
+
+    /**
+     * WorkerPipeline object constructor for a parser creating its own batches, stage threads are started immediately
+     * Every batch passed by the parser is indexed as a whole.
+     * @param fetchThreads number of files downloaded at the same time
+     * @param fetchCapacity number of tasks waiting for download
+     * @param parseThreads number of files parsed at the same time
+     * @param parseCapacity number of downloaded files waiting for a parser
+     * @param indexThreads number of threads handing documents to the indexer
+     * @param indexCapacity number of document batches waiting for the indexer
+     */
+    public WorkerPipeline(Opener opener, BatchParser parser, Consumer<IndexableContent> indexer,
+                          int fetchThreads, int fetchCapacity,
+                          int parseThreads, int parseCapacity,
+                          int indexThreads, int indexCapacity) {
+        this.opener = opener;
+        this.parser = parser;
+        this.indexer = indexer;
+        this.indexStage = new PipelineStage<>("index", indexThreads, indexCapacity,
+                this::index, (batch, e) -> batch.job.fail());
+        this.parseStage = new PipelineStage<>("parse", parseThreads, parseCapacity,
+                this::parse, (job, e) -> job.fail());
+        this.fetchStage = new PipelineStage<>("fetch", fetchThreads, fetchCapacity,
+                this::fetch, (job, e) -> job.fail());
+    }
+
+    /**
+     * Adds a task to the pipeline, blocks while the fetch queue is full
+     * @param task task to process
+     * @return future completed with true when task is processed, false when it failed
+     */
+    public CompletableFuture<Boolean> submit(Task task) {
+        Job job = new Job(task, awaitIndexing ? new IndexingCompletion() : null);
+        try {
+            fetchStage.submit(job);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.fail();
+        }
+        return job.result;
+    }
+
+    /**
+     * Tasks are complete when their documents are indexed instead of handed to the indexer
+     * Indexer should call IndexableContent.indexed for every document, ex.: ElasticsearchManager,
+     * so a task is acked only after its documents are durable in Elasticsearch
+     * and a task with a failed document is nacked.
+     * Should be set before the first task is submitted.
+     * @param awaitIndexing true to wait for the indexer
+     */
+    public void setAwaitIndexing(boolean awaitIndexing) {
+        this.awaitIndexing = awaitIndexing;
+    }
+
+    /**
+     * Stops all stages, tasks in progress are not completed
+     */
+    public void shutdown() {
+        fetchStage.shutdown();
+        parseStage.shutdown();
+        indexStage.shutdown();
+    }
+
+    private void fetch(Job job) throws Exception {
+        logger.debug("1 - Fetching : " + job.task);
+        job.in = opener.open(job.task);
+        parseStage.submit(job);
+    }
+
+    private void parse(Job job) throws Exception {
+        logger.debug("2 - Parsing : " + job.task);
+        try (InputStream in = job.in) {
+            if (job.failed) {
+                // failed while waiting for a parser, stream is only closed
+                job.release();
+                return;
+            }
+            parser.parse(in, documents -> emit(job, documents));
+        }
+        job.release();
+    }
+
+    /**
+     * Collects documents of a parser into batches
+     */
+    private static BatchParser batches(Parser parser, int batchSize) {
+        return (in, batchConsumer) -> {
+            List<IndexableContent> documents = new ArrayList<>(batchSize);
+            parser.parse(in, document -> {
+                documents.add(document);
+                if (documents.size() >= batchSize) {
+                    batchConsumer.accept(new ArrayList<>(documents));
+                    documents.clear();
+                }
+            });
+            if (!documents.isEmpty()) {
+                batchConsumer.accept(documents);
+            }
+        };
+    }
+
+    private void emit(Job job, List<IndexableContent> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        if (job.failed) {
+            // parser stops, stream is closed by the parse stage
+            throw new IllegalStateException("Task failed in index stage: " + job.task);
+        }
+        job.pending.incrementAndGet();
+        try {
+            indexStage.submit(new Batch(job, documents));
+        } catch (InterruptedException e) {
+            job.pending.decrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for index stage", e);
+        }
+    }
+
+    private void index(Batch batch) {
+        IndexingCompletion completion = batch.job.completion;
+        for (IndexableContent document : batch.documents) {
+            if (completion != null) {
+                completion.add();
+                document.setCompletion(completion);
+            }
+            try {
+                indexer.accept(document);
+            } catch (RuntimeException e) {
+                // document is counted but never reaches a bulk
+                document.indexed(false);
+                throw e;
+            }
+        }
+        batch.job.release();
+    }
+
+    /**
+     * A task in the pipeline
+     * pending counts the parse step and every batch not indexed yet.
+     * completion is null when documents are not tracked until they are indexed.
+     */
+    private static class Job {
+        private final Task task;
+        private final CompletableFuture<Boolean> result;
+        private final AtomicInteger pending;
+        private final IndexingCompletion completion;
+        private volatile boolean failed;
+        private volatile InputStream in;
+
+        private Job(Task task, IndexingCompletion completion) {
+            this.task = task;
+            this.result = new CompletableFuture<>();
+            this.pending = new AtomicInteger(1);
+            this.completion = completion;
+        }
+
+        private void release() {
+            if (pending.decrementAndGet() == 0) {
+                logger.debug("3 - Finished processing : " + task + " failed: " + failed);
+                if (completion == null) {
+                    result.complete(!failed);
+                    return;
+                }
+                // documents already handed to the indexer are waited even when task failed,
+                // so a redelivered task does not run next to them
+                completion.seal();
+                completion.getFuture().thenAccept(indexed -> {
+                    logger.debug("4 - Indexed : " + task + " success: " + indexed);
+                    result.complete(!failed && indexed);
+                });
+            }
+        }
+
+        private void fail() {
+            failed = true;
+            release();
+        }
+    }
+
+    private static class Batch {
+        private final Job job;
+        private final List<IndexableContent> documents;
+
+        private Batch(Job job, List<IndexableContent> documents) {
+            this.job = job;
+            this.documents = documents;
+        }
+    }
+}
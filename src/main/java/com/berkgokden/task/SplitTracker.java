@@ -0,0 +1,116 @@
+package com.berkgokden.task;
+
+import org.apache.log4j.Logger;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of split files until every part is done
+ * Parts are registered when they are published and marked done
+ * when a worker reports them on task_done after they are acked.
+ * A file is complete only when all of its parts are done, then its completion callback is called.
+ *
+ * State is held in memory, parts of files published before a restart are ignored.
+ * Observer keeps incomplete files out of its checkpoint with the callback,
+ * so they are published again after a restart.
+ */
+public class SplitTracker {
+    private static final Logger logger = Logger.getLogger(SplitTracker.class.getName());
+
+    private final Map<String, SplitFile> remaining;
+
+    /**
+     * SplitTracker object constructor
+     */
+    public SplitTracker() {
+        this.remaining = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Starts tracking parts of a file
+     * @param parts part tasks of a single file, see Task.split
+     */
+    public void register(List<Task> parts) {
+        register(parts, null);
+    }
+
+    /**
+     * Starts tracking parts of a file
+     * @param parts part tasks of a single file, see Task.split
+     * @param onComplete called once when all parts are done, null to ignore
+     */
+    public void register(List<Task> parts, Runnable onComplete) {
+        if (parts.isEmpty() || !parts.get(0).isPart()) {
+            return;
+        }
+        Task first = parts.get(0);
+        BitSet bits = new BitSet(first.getParts());
+        bits.set(0, first.getParts());
+        remaining.put(key(first), new SplitFile(bits, onComplete));
+    }
+
+    /**
+     * Stops tracking a file without completing it, ex.: when its parts could not be published
+     * @param part any part of the file
+     */
+    public void remove(Task part) {
+        remaining.remove(key(part));
+    }
+
+    /**
+     * Marks a part as done, a part reported twice is counted once
+     * @param part finished part task
+     * @return true when this was the last remaining part of the file
+     */
+    public boolean done(Task part) {
+        String key = key(part);
+        SplitFile[] completed = new SplitFile[1];
+        remaining.computeIfPresent(key, (k, file) -> {
+            file.bits.clear(part.getPart());
+            if (file.bits.isEmpty()) {
+                completed[0] = file;
+                return null;
+            }
+            return file;
+        });
+        if (completed[0] == null) {
+            return false;
+        }
+        logger.info("All " + part.getParts() + " parts are done: " + part.getSource() + ":" + part.getPath());
+        if (completed[0].onComplete != null) {
+            try {
+                completed[0].onComplete.run();
+            } catch (RuntimeException e) {
+                logger.error("Completion of split file failed: " + part.getSource() + ":" + part.getPath(), e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of split files with remaining parts
+     */
+    public int getPendingFiles() {
+        return remaining.size();
+    }
+
+    private static String key(Task task) {
+        return task.getSource() + "\n" + task.getPath() + "\n" + task.getTimeStamp();
+    }
+
+    /**
+     * Remaining parts of a file and its completion callback
+     */
+    private static class SplitFile {
+        private final BitSet bits;
+        private final Runnable onComplete;
+
+        private SplitFile(BitSet bits, Runnable onComplete) {
+            this.bits = bits;
+            this.onComplete = onComplete;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.berkgokden.task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A unit of work published to task_queue
+ * A task names a file and the ftp source it should be downloaded from.
+ * Size and timestamp of the file are optional, -1 when they are not known,
+ * they identify a version of the file, ex.: for the download cache.
+ *
+ * A large file can be split into parts, a part task holds a byte range of the file
+ * and its number among all parts of the file.
+ *
+ * Tasks are encoded as text, one "key=value" per line.
+ * A message without any line break is an old style task holding only a file name,
+ * it is read as a file in the folder of the default source.
+ */
+public class Task {
+    public static final String DEFAULT_SOURCE = "default";
+
+    private static final String SOURCE = "source";
+    private static final String PATH = "path";
+    private static final String SIZE = "size";
+    private static final String TIMESTAMP = "timestamp";
+    private static final String OFFSET = "offset";
+    private static final String LENGTH = "length";
+    private static final String PART = "part";
+    private static final String PARTS = "parts";
+
+    private String source;
+    private String path;
+    private long size = -1L;
+    private long timeStamp = -1L;
+    private long offset = -1L;
+    private long length = -1L;
+    private int part;
+    private int parts = 1;
+
+    public Task(String source, String path) {
+        this.source = source;
+        this.path = path;
+    }
+
+    public Task(String source, String path, long size, long timeStamp) {
+        this(source, path);
+        this.size = size;
+        this.timeStamp = timeStamp;
+    }
+
+    /**
+     * Splits a whole file task into byte range tasks
+     * @param partSize maximum length of a part in bytes
+     * @return part tasks, a single whole file task when size is not larger than partSize
+     */
+    public List<Task> split(long partSize) {
+        if (size <= partSize || partSize <= 0 || isPart()) {
+            return Collections.singletonList(this);
+        }
+        int count = (int) ((size + partSize - 1) / partSize);
+        List<Task> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Task task = new Task(source, path, size, timeStamp);
+            task.offset = i * partSize;
+            task.length = Math.min(partSize, size - task.offset);
+            task.part = i;
+            task.parts = count;
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    /**
+     * @return true when this task is a byte range of a file
+     */
+    public boolean isPart() {
+        return offset >= 0;
+    }
+
+    /**
+     * @return task as text to be published to task_queue
+     */
+    public String encode() {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put(SOURCE, source);
+        fields.put(PATH, path);
+        if (size >= 0) {
+            fields.put(SIZE, Long.toString(size));
+        }
+        if (timeStamp >= 0) {
+            fields.put(TIMESTAMP, Long.toString(timeStamp));
+        }
+        if (isPart()) {
+            fields.put(OFFSET, Long.toString(offset));
+            fields.put(LENGTH, Long.toString(length));
+            fields.put(PART, Integer.toString(part));
+            fields.put(PARTS, Integer.toString(parts));
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (field.getValue() != null) {
+                builder.append(field.getKey()).append('=').append(field.getValue()).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Reads a task from a task_queue message
+     * @param message text created by encode or a plain file name
+     * @param defaultFolder folder of the default source, used for plain file names
+     * @return decoded task
+     */
+    public static Task decode(String message, String defaultFolder) {
+        if (message.indexOf('\n') < 0) {
+            return new Task(DEFAULT_SOURCE, defaultFolder + message);
+        }
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (String line : message.split("\n")) {
+            int separator = line.indexOf('=');
+            if (separator > 0) {
+                fields.put(line.substring(0, separator), line.substring(separator + 1));
+            }
+        }
+        if (!fields.containsKey(PATH)) {
+            throw new IllegalArgumentException("Task has no path: " + message);
+        }
+        try {
+            Task task = new Task(fields.getOrDefault(SOURCE, DEFAULT_SOURCE), fields.get(PATH),
+                    Long.parseLong(fields.getOrDefault(SIZE, "-1")),
+                    Long.parseLong(fields.getOrDefault(TIMESTAMP, "-1")));
+            if (fields.containsKey(OFFSET)) {
+                task.offset = Long.parseLong(fields.get(OFFSET));
+                task.length = Long.parseLong(fields.getOrDefault(LENGTH, "-1"));
+                task.part = Integer.parseInt(fields.getOrDefault(PART, "0"));
+                task.parts = Integer.parseInt(fields.getOrDefault(PARTS, "1"));
+            }
+            return task;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Task has an invalid number: " + message, e);
+        }
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    public void setTimeStamp(long timeStamp) {
+        this.timeStamp = timeStamp;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getPart() {
+        return part;
+    }
+
+    public int getParts() {
+        return parts;
+    }
+
+    @Override
+    public String toString() {
+        if (isPart()) {
+            return source + ":" + path + " part " + (part + 1) + "/" + parts;
+        }
+        return source + ":" + path;
+    }
+}
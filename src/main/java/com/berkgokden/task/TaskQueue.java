@@ -1,6 +1,19 @@
 package com.berkgokden.task;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
 
@@ -21,7 +34,12 @@ import org.apache.log4j.Logger;
 public class TaskQueue {
     private static final Logger logger = Logger.getLogger(TaskQueue.class.getName());
 
-    private static final String TASK_QUEUE_NAME = "task_queue";
+    public static final String TASK_QUEUE_NAME = "task_queue";
+    /**
+     * Workers report finished parts of split files to this queue
+     */
+    public static final String DONE_QUEUE_NAME = "task_done";
+    private static final int MAX_PUBLISH_CHANNELS = 4;
 
     private static TaskQueue ourInstance = new TaskQueue();
 
@@ -33,71 +51,369 @@ public class TaskQueue {
 
     private String host = "localhost";
 
+    private long confirmTimeout = 30000L;
+
+    private Connection publishConnection;
+    private boolean publisherConfirms;
+    private final BlockingQueue<Channel> publishChannels;
+    private final Semaphore publishPermits;
+    private final Set<String> declaredQueues;
+
     private TaskQueue() {
         factory = new ConnectionFactory();
+        publishChannels = new LinkedBlockingQueue<>();
+        publishPermits = new Semaphore(MAX_PUBLISH_CHANNELS);
+        declaredQueues = ConcurrentHashMap.newKeySet();
     }
 
     /**
      * A helper method to publish a string value to task_queue
-     * Note that connections are not management is done by ConnectionFactory
+     * Message is published on a long lived channel and confirmed by the broker
+     * before this method returns.
      *
      * @param message
      * @throws IOException
      * @throws TimeoutException
      */
     public void publish(String message) throws IOException, TimeoutException {
-        Connection connection = factory.newConnection();
-        Channel channel = connection.createChannel();
+        publish(Collections.singletonList(message));
+    }
 
-        channel.queueDeclare(TASK_QUEUE_NAME, true, false, false, null);
+    /**
+     * A helper method to publish string values to task_queue as a batch
+     * All messages are published on a long lived channel in confirm mode
+     * and this method waits once for the confirms of the whole batch.
+     * When an exception is thrown some messages may be already queued,
+     * publishing the batch again can create duplicate tasks.
+     *
+     * @param messages
+     * @throws IOException when publishing fails or broker nacks a message
+     * @throws TimeoutException when confirms are not received in time
+     */
+    public void publish(List<String> messages) throws IOException, TimeoutException {
+        publish(TASK_QUEUE_NAME, messages);
+    }
 
-        channel.basicPublish( "", TASK_QUEUE_NAME,
-                MessageProperties.PERSISTENT_TEXT_PLAIN,
-                message.getBytes());
-        logger.debug(" [x] Sent '" + message + "'");
+    /**
+     * A helper method to publish string values to a durable queue as a batch
+     * Queue is declared when it is used for the first time.
+     *
+     * @param queue name of the queue
+     * @param messages
+     * @throws IOException when publishing fails or broker nacks a message
+     * @throws TimeoutException when confirms are not received in time
+     */
+    public void publish(String queue, List<String> messages) throws IOException, TimeoutException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Channel channel = borrowPublishChannel();
+        boolean healthy = false;
+        try {
+            if (!declaredQueues.contains(queue)) {
+                channel.queueDeclare(queue, true, false, false, null);
+                declaredQueues.add(queue);
+            }
+            for (String message : messages) {
+                channel.basicPublish( "", queue,
+                        MessageProperties.PERSISTENT_TEXT_PLAIN,
+                        message.getBytes("UTF-8"));
+                logger.debug(" [x] Sent '" + message + "'");
+            }
+            if (publisherConfirms) {
+                channel.waitForConfirmsOrDie(confirmTimeout);
+            }
+            healthy = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for publisher confirms", e);
+        } finally {
+            returnPublishChannel(channel, healthy);
+        }
+    }
+
+    /**
+     * Takes an idle publisher channel or opens a new one
+     * At most MAX_PUBLISH_CHANNELS channels are used at the same time.
+     */
+    private Channel borrowPublishChannel() throws IOException, TimeoutException {
+        try {
+            if (!publishPermits.tryAcquire(confirmTimeout, TimeUnit.MILLISECONDS)) {
+                throw new TimeoutException("No publisher channel available in " + confirmTimeout + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for publisher channel", e);
+        }
+        try {
+            Channel channel;
+            while ((channel = publishChannels.poll()) != null) {
+                if (channel.isOpen()) {
+                    return channel;
+                }
+            }
+            channel = getPublishConnection().createChannel();
+            if (publisherConfirms) {
+                channel.confirmSelect();
+            }
+            return channel;
+        } catch (IOException | TimeoutException | RuntimeException e) {
+            publishPermits.release();
+            throw e;
+        }
+    }
 
-        channel.close();
-        connection.close();
+    private void returnPublishChannel(Channel channel, boolean healthy) {
+        if (healthy && channel.isOpen()) {
+            publishChannels.offer(channel);
+        } else {
+            // unconfirmed messages are left on a broken channel, do not reuse it
+            try {
+                if (channel.isOpen()) {
+                    channel.close();
+                }
+            } catch (IOException | TimeoutException | ShutdownSignalException e) {
+                logger.debug("Publisher channel close failed:", e);
+            }
+        }
+        publishPermits.release();
+    }
+
+    /**
+     * Returns the long lived publisher connection, it is reopened when it is closed
+     * queues are declared once for every new connection.
+     */
+    private synchronized Connection getPublishConnection() throws IOException, TimeoutException {
+        if (publishConnection == null || !publishConnection.isOpen()) {
+            publishChannels.clear();
+            declaredQueues.clear();
+            publishConnection = factory.newConnection();
+            publisherConfirms = supportsPublisherConfirms(publishConnection);
+            if (!publisherConfirms) {
+                logger.warn("AMQP server does not support publisher confirms, messages are not confirmed");
+            }
+        }
+        return publishConnection;
+    }
+
+    /**
+     * Checks capabilities sent by the server when connection is opened
+     * confirm.select closes the connection on servers that do not support it.
+     */
+    private static boolean supportsPublisherConfirms(Connection connection) {
+        Object capabilities = connection.getServerProperties().get("capabilities");
+        return capabilities instanceof Map
+                && Boolean.TRUE.equals(((Map<?, ?>) capabilities).get("publisher_confirms"));
+    }
+
+    /**
+     * Closes publisher connection, a new one is opened on next publish
+     */
+    public synchronized void closePublisher() {
+        publishChannels.clear();
+        if (publishConnection != null) {
+            try {
+                if (publishConnection.isOpen()) {
+                    publishConnection.close();
+                }
+            } catch (IOException | ShutdownSignalException e) {
+                logger.debug("Publisher connection close failed:", e);
+            }
+            publishConnection = null;
+        }
     }
 
     /**
      * A helper function to register a consumer function to wait on task_quue
      * To enable retries given function should return true when process successful
      * and false when retry is required.
+     * Messages are processed one by one on the delivery thread.
      *
      * @param function Function should get a string and return true if process successful
      * @throws IOException
      * @throws TimeoutException
      */
     public void registerConsumerFunction(Function<String, Boolean> function) throws IOException, TimeoutException {
+        registerConsumerFunction(function, 1, 1);
+    }
+
+    /**
+     * A helper function to register a consumer function to wait on task_quue
+     * with a pool of processing threads.
+     * At most prefetch messages are delivered before they are acked,
+     * delivered messages are processed by a bounded executor with given number of threads.
+     * To enable retries given function should return true when process successful
+     * and false when retry is required.
+     *
+     * @param function Function should get a string and return true if process successful
+     * @param prefetch number of unacknowledged messages this consumer can hold
+     * @param threads number of messages processed at the same time
+     * @throws IOException
+     * @throws TimeoutException
+     */
+    public void registerConsumerFunction(Function<String, Boolean> function,
+                                         int prefetch,
+                                         int threads) throws IOException, TimeoutException {
+        registerConsumerFunction(TASK_QUEUE_NAME, function, prefetch, threads);
+    }
+
+    /**
+     * A helper function to register a consumer function to wait on a durable queue
+     * with a pool of processing threads, see registerConsumerFunction(function, prefetch, threads).
+     *
+     * @param queue name of the queue
+     * @param function Function should get a string and return true if process successful
+     * @param prefetch number of unacknowledged messages this consumer can hold
+     * @param threads number of messages processed at the same time
+     * @throws IOException
+     * @throws TimeoutException
+     */
+    public void registerConsumerFunction(String queue,
+                                         Function<String, Boolean> function,
+                                         int prefetch,
+                                         int threads) throws IOException, TimeoutException {
+        if (prefetch < threads) {
+            throw new IllegalArgumentException("prefetch " + prefetch + " is less than threads " + threads);
+        }
+        final Connection connection = factory.newConnection();
+        final Channel channel = connection.createChannel();
+
+        channel.queueDeclare(queue, true, false, false, null);
+
+        channel.basicQos(prefetch);
+
+        // broker never delivers more than prefetch messages so the queue is never full
+        final ExecutorService executor = new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(prefetch));
+
+        final Consumer consumer = new DefaultConsumer(channel) {
+            @Override
+            public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+                String message = new String(body, "UTF-8");
+
+                logger.debug(" [x] Received '" + message + "'");
+                if (threads == 1) {
+                    process(channel, function, envelope.getDeliveryTag(), message);
+                } else {
+                    executor.execute(() -> process(channel, function, envelope.getDeliveryTag(), message));
+                }
+            }
+
+            @Override
+            public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+                executor.shutdown();
+            }
+        };
+
+        channel.basicConsume(queue, false, consumer);
+    }
+
+    /**
+     * A helper function to register an asynchronous consumer function to wait on task_queue
+     * Function is called on the delivery thread and should return quickly,
+     * a delivery is acked or nacked when returned future completes.
+     * At most prefetch messages are in progress at the same time.
+     *
+     * @param function Function should get a string and return a future of true if process successful
+     * @param prefetch number of unacknowledged messages this consumer can hold
+     * @throws IOException
+     * @throws TimeoutException
+     */
+    public void registerAsyncConsumerFunction(Function<String, CompletableFuture<Boolean>> function,
+                                              int prefetch) throws IOException, TimeoutException {
+        registerAsyncConsumerFunction(function, prefetch, null);
+    }
+
+    /**
+     * A helper function to register an asynchronous consumer function to wait on task_queue
+     * Same as registerAsyncConsumerFunction, acked is called with a message after its delivery is acked,
+     * ex.: to report a finished task only when it will not be delivered again.
+     *
+     * @param function Function should get a string and return a future of true if process successful
+     * @param prefetch number of unacknowledged messages this consumer can hold
+     * @param acked called with every acked message, null to ignore
+     * @throws IOException
+     * @throws TimeoutException
+     */
+    public void registerAsyncConsumerFunction(Function<String, CompletableFuture<Boolean>> function,
+                                              int prefetch, java.util.function.Consumer<String> acked)
+            throws IOException, TimeoutException {
         final Connection connection = factory.newConnection();
         final Channel channel = connection.createChannel();
 
         channel.queueDeclare(TASK_QUEUE_NAME, true, false, false, null);
 
-        channel.basicQos(1);
+        channel.basicQos(prefetch);
 
         final Consumer consumer = new DefaultConsumer(channel) {
             @Override
             public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
                 String message = new String(body, "UTF-8");
+                long deliveryTag = envelope.getDeliveryTag();
 
                 logger.debug(" [x] Received '" + message + "'");
+                CompletableFuture<Boolean> result;
                 try {
-                    if (function.apply(message)) {
-                        channel.basicAck(envelope.getDeliveryTag(), false);
-                    } else {
-                        channel.basicNack(envelope.getDeliveryTag(), false, true);
-                    }
-                } catch (IOException ex) {
-                    logger.error("Handle Delivery Error:", ex);
+                    result = function.apply(message);
+                } catch (RuntimeException ex) {
+                    result = new CompletableFuture<>();
+                    result.completeExceptionally(ex);
                 }
+                result.whenComplete((success, ex) -> {
+                    if (ex != null) {
+                        logger.error("Task failed: " + message, ex);
+                    }
+                    boolean processed = ex == null && Boolean.TRUE.equals(success);
+                    if (acknowledge(channel, deliveryTag, processed) && processed && acked != null) {
+                        try {
+                            acked.accept(message);
+                        } catch (RuntimeException e) {
+                            logger.error("Acked callback failed: " + message, e);
+                        }
+                    }
+                });
             }
         };
 
         channel.basicConsume(TASK_QUEUE_NAME, false, consumer);
     }
 
+    /**
+     * Runs function for a message and acks or nacks its delivery
+     */
+    private static void process(Channel channel, Function<String, Boolean> function,
+                                long deliveryTag, String message) {
+        boolean success;
+        try {
+            success = Boolean.TRUE.equals(function.apply(message));
+        } catch (RuntimeException ex) {
+            logger.error("Task failed: " + message, ex);
+            success = false;
+        }
+        acknowledge(channel, deliveryTag, success);
+    }
+
+    /**
+     * Acks a successful delivery or nacks it to be delivered again
+     * Channel is not thread safe so acknowledgements are sent one at a time.
+     * @return true when ack or nack is sent
+     */
+    private static boolean acknowledge(Channel channel, long deliveryTag, boolean success) {
+        try {
+            synchronized (channel) {
+                if (success) {
+                    channel.basicAck(deliveryTag, false);
+                } else {
+                    channel.basicNack(deliveryTag, false, true);
+                }
+            }
+            return true;
+        } catch (IOException ex) {
+            logger.error("Handle Delivery Error:", ex);
+            return false;
+        }
+    }
+
     public String getHost() {
         return host;
     }
@@ -111,5 +427,17 @@ public class TaskQueue {
     public void setHost(String host) {
         this.host = host;
         factory.setHost(host);
+        closePublisher();
+    }
+
+    public long getConfirmTimeout() {
+        return confirmTimeout;
+    }
+
+    /**
+     * @param confirmTimeout time in milliseconds to wait for publisher confirms of a batch
+     */
+    public void setConfirmTimeout(long confirmTimeout) {
+        this.confirmTimeout = confirmTimeout;
     }
 }
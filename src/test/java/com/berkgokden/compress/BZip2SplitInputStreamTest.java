@@ -0,0 +1,47 @@
+package com.berkgokden.compress;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class BZip2SplitInputStreamTest {
+
+    @Test
+    public void shouldPassWhenEveryLineReadByExactlyOneRange() throws Exception {
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 2 * 1024 * 1024) {
+            builder.append("MSWRMOS ;").append(random.nextInt(100000)).append(';')
+                    .append(random.nextDouble()).append('\n');
+        }
+        byte[] data = builder.toString().getBytes();
+        ByteArrayOutputStream compressedOut = new ByteArrayOutputStream();
+        try (OutputStream bzOut = new BZip2CompressorOutputStream(compressedOut, 1)) {
+            bzOut.write(data);
+        }
+        byte[] compressed = compressedOut.toByteArray();
+
+        // ranges smaller and larger than a block
+        for (int length : new int[]{7000, 50000, 300000, compressed.length}) {
+            ByteArrayOutputStream joined = new ByteArrayOutputStream();
+            for (int offset = 0; offset < compressed.length; offset += length) {
+                InputStream rangeIn = new ByteArrayInputStream(compressed, offset, compressed.length - offset);
+                try (InputStream in = new BZip2SplitInputStream(rangeIn, offset, length)) {
+                    joined.write(IOUtils.toByteArray(in));
+                }
+            }
+            assertArrayEquals("range length " + length, data, joined.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.berkgokden.compress;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class ParallelBZip2InputStreamTest {
+
+    @Test
+    public void shouldPassWhenMultiBlockStreamDecompressedInOrder() throws Exception {
+        // smallest block size gives many blocks
+        byte[] compressed = compress(generate(3 * 1024 * 1024), 1);
+
+        byte[] expected = IOUtils.toByteArray(new BZip2CompressorInputStream(new ByteArrayInputStream(compressed)));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (InputStream in = new ParallelBZip2InputStream(new ByteArrayInputStream(compressed), pool, 3)) {
+            assertArrayEquals(expected, IOUtils.toByteArray(in));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldPassWhenFileDecompressedSameAsSequential() throws Exception {
+        String compressFilePath = getClass().getClassLoader()
+                .getResource("file1.csv.bz2").getPath();
+        String uncompressFilePath = getClass().getClassLoader()
+                .getResource("file1.csv").getPath();
+        byte[] expected = IOUtils.toByteArray(new FileInputStream(uncompressFilePath));
+        try (InputStream in = new ParallelBZip2InputStream(new FileInputStream(compressFilePath))) {
+            assertArrayEquals(expected, IOUtils.toByteArray(in));
+        }
+        try (InputStream in = new ParallelBZip2InputStream(new ByteArrayInputStream(compress(new byte[0], 9)))) {
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void shouldPassWhenFalseMagicAtRangeStartIsDropped() throws Exception {
+        byte[] compressed = compress(generate(3 * 1024 * 1024), 1);
+        byte[] expected = IOUtils.toByteArray(new BZip2CompressorInputStream(new ByteArrayInputStream(compressed)));
+
+        // range starts in compressed data of a previous block that holds a block magic number,
+        // the first block of this file is byte aligned after the 4 byte header
+        ByteArrayOutputStream range = new ByteArrayOutputStream();
+        range.write(new byte[]{0x31, 0x41, 0x59, 0x26, 0x53, 0x59});
+        byte[] garbage = new byte[64];
+        new Random(7).nextBytes(garbage);
+        range.write(garbage);
+        range.write(compressed, 4, compressed.length - 4);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (InputStream in = new ParallelBZip2InputStream(new ByteArrayInputStream(range.toByteArray()),
+                1000L, range.size(), pool, 8)) {
+            assertArrayEquals(expected, IOUtils.toByteArray(in));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailWhenStreamIsTruncated() throws Exception {
+        byte[] compressed = compress(generate(512 * 1024), 1);
+        byte[] truncated = new byte[compressed.length - 100];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+        try (InputStream in = new ParallelBZip2InputStream(new ByteArrayInputStream(truncated))) {
+            IOUtils.toByteArray(in);
+        }
+    }
+
+    private static byte[] generate(int length) {
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length) {
+            builder.append("2016-07-29 00:00;").append(random.nextInt(1000)).append(';')
+                    .append(random.nextDouble()).append(";ecmwf\n");
+            if (random.nextInt(100) == 0) {
+                // long runs exercise the run length encoding of bzip2
+                for (int i = random.nextInt(2000); i > 0; i--) {
+                    builder.append('x');
+                }
+            }
+        }
+        return builder.toString().getBytes();
+    }
+
+    private static byte[] compress(byte[] data, int blockSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream bzOut = new BZip2CompressorOutputStream(out, blockSize)) {
+            bzOut.write(data);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,127 @@
+package com.berkgokden.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class ByteCsvReaderTest {
+
+    @Test
+    public void shouldReadSameFieldsAsCommonsCsvWhenFileParsed() throws Exception {
+        List<List<String>> expected;
+        try (Reader reader = new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("file1.csv"), StandardCharsets.UTF_8)) {
+            expected = commonsCsv(reader);
+        }
+        List<List<String>> actual;
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("file1.csv")) {
+            actual = byteCsv(in, 256 * 1024);
+        }
+        assertTrue(expected.size() > 100);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void shouldReadSameFieldsAsCommonsCsvWhenLineEndingsDiffer() throws Exception {
+        String[] inputs = new String[] {
+                "",
+                "\n",
+                "a;b",
+                "a;b\n\nc;d\n",
+                "a;b\r\nc\rd;;\n",
+                " a ; b\t;\n;\r\n\r",
+                "first;line;is;long\r\nx\r\n\r\ny;\n"};
+        for (String input : inputs) {
+            List<List<String>> expected = commonsCsv(new java.io.StringReader(input));
+            byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+            // small buffers split lines and \r\n between reads
+            for (int bufferSize : new int[] {1, 2, 3, 16, 1024}) {
+                List<List<String>> actual = byteCsv(new OneByteInputStream(bytes), bufferSize);
+                assertEquals("input: " + input.replace("\r", "\\r").replace("\n", "\\n"),
+                        expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void shouldReadIntWhenFieldIsNumber() throws Exception {
+        ByteCsvReader reader = new ByteCsvReader(new ByteArrayInputStream(
+                " 95;-12;+7;2147483647;-2147483648;2147483648;12a;;-".getBytes(StandardCharsets.UTF_8)), ';');
+        ByteCsvRecord record = reader.next();
+        assertEquals(9, record.size());
+        assertTrue(record.isInt(0));
+        assertEquals(95, record.getInt(0));
+        assertEquals(-12, record.getInt(1));
+        assertEquals(7, record.getInt(2));
+        assertEquals(Integer.MAX_VALUE, record.getInt(3));
+        assertEquals(Integer.MIN_VALUE, record.getInt(4));
+        assertFalse(record.isInt(5));
+        assertFalse(record.isInt(6));
+        assertFalse(record.isInt(7));
+        assertFalse(record.isInt(8));
+        assertTrue(record.equalsAscii(6, "12a"));
+        assertFalse(record.equalsAscii(6, "12b"));
+        assertNull(reader.next());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailWhenFieldIsMissing() throws Exception {
+        ByteCsvReader reader = new ByteCsvReader(new ByteArrayInputStream(
+                "a;b".getBytes(StandardCharsets.UTF_8)), ';');
+        reader.next().getString(2);
+    }
+
+    private static List<List<String>> commonsCsv(Reader reader) throws Exception {
+        List<List<String>> lines = new ArrayList<>();
+        for (CSVRecord record : new CSVParser(reader, CSVFormat.newFormat(';'))) {
+            List<String> fields = new ArrayList<>();
+            for (String value : record) {
+                fields.add(value.trim());
+            }
+            lines.add(fields);
+        }
+        return lines;
+    }
+
+    private static List<List<String>> byteCsv(InputStream in, int bufferSize) throws Exception {
+        List<List<String>> lines = new ArrayList<>();
+        ByteCsvReader reader = new ByteCsvReader(in, ';', bufferSize);
+        ByteCsvRecord record;
+        while ((record = reader.next()) != null) {
+            List<String> fields = new ArrayList<>();
+            for (int i = 0; i < record.size(); i++) {
+                fields.add(record.getString(i));
+            }
+            lines.add(fields);
+        }
+        return lines;
+    }
+
+    /**
+     * Returns at most one byte per read to test lines split between reads
+     */
+    private static class OneByteInputStream extends ByteArrayInputStream {
+        OneByteInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(1, len));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.berkgokden.csv;
+
+import com.berkgokden.csv.parsers.WeatherParser;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class CSVProcessorTest {
+
+    @Test
+    public void shouldCreateSameDocumentsWhenParsedInParallel() throws Exception {
+        byte[] data = Files.readAllBytes(Paths.get(getClass().getClassLoader().getResource("file1.csv").toURI()));
+        List<String> expected = new ArrayList<>();
+        CSVProcessor.processCSVdata(new ByteArrayInputStream(data), WeatherParser.delimeter,
+                WeatherParser::parse, document -> expected.add(document.getId() + document.getContent().toUtf8()));
+        Collections.sort(expected);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // chunks shorter than a line, about a line and many lines
+            for (int chunkSize : new int[] {100, 1000, 64 * 1024}) {
+                List<String> actual = Collections.synchronizedList(new ArrayList<>());
+                try (InputStream in = new ByteArrayInputStream(data)) {
+                    CSVProcessor.processCSVdata(in, WeatherParser.delimeter, WeatherParser::parse,
+                            documents -> {
+                                for (IndexableContent document : documents) {
+                                    actual.add(document.getId() + document.getContent().toUtf8());
+                                }
+                            }, pool, chunkSize);
+                }
+                Collections.sort(actual);
+                assertEquals("chunk size " + chunkSize, expected, actual);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailWhenChunkFails() throws Exception {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            csv.append(i).append(";line\n");
+        }
+        CSVProcessor.processCSVdata(new ByteArrayInputStream(csv.toString().getBytes("UTF-8")), ';',
+                record -> {
+                    if (record.equalsAscii(0, "500")) {
+                        throw new IllegalArgumentException("broken line");
+                    }
+                    return null;
+                }, documents -> { }, ForkJoinPool.commonPool(), 256);
+    }
+
+    @Test
+    public void shouldPassWhenNoBatchConsumedAfterReadFails() throws Exception {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            csv.append(i).append(";line\n");
+        }
+        InputStream failing = new SequenceInputStream(new ByteArrayInputStream(csv.toString().getBytes("UTF-8")),
+                new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw new IOException("connection lost");
+                    }
+                });
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger consumed = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            CSVProcessor.processCSVdata(failing, ';', record -> new IndexableContent(),
+                    documents -> {
+                        running.incrementAndGet();
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        consumed.incrementAndGet();
+                        running.decrementAndGet();
+                    }, pool, 256);
+            fail("read failure is not passed");
+        } catch (IOException e) {
+            // chunks parsing when reading failed are finished
+            assertEquals(0, running.get());
+            int count = consumed.get();
+            assertTrue(count > 0);
+            Thread.sleep(300);
+            assertEquals(count, consumed.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
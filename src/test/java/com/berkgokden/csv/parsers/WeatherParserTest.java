@@ -1,12 +1,16 @@
 package com.berkgokden.csv.parsers;
 
+import com.berkgokden.csv.CSVProcessor;
 import com.berkgokden.csv.IndexableContent;
 import org.apache.commons.csv.CSVRecord;
 import org.junit.Test;
 
+import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.*;
@@ -91,4 +95,62 @@ public class WeatherParserTest {
         System.out.println(indexableContent.getId());
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldCreateSameContentWhenParsedFromBytes() throws Exception {
+        List<IndexableContent> expected = new ArrayList<>();
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("file1.csv")) {
+            CSVProcessor.processCSVdata(in, WeatherParser.delimeter, WeatherParser.Headers.class,
+                    WeatherParser::parse, expected::add);
+        }
+        List<IndexableContent> actual = new ArrayList<>();
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("file1.csv")) {
+            CSVProcessor.processCSVdata(in, WeatherParser.delimeter, WeatherParser::parse, actual::add);
+        }
+        assertFalse(expected.isEmpty());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getContent().toUtf8(), actual.get(i).getContent().toUtf8());
+        }
+    }
+
+    @Test
+    public void shouldCreateSameContentWhenDateAndNumbersDiffer() throws Exception {
+        String[] lines = new String[] {
+                "MSWRMOS ;mix  2015090318;062100  ;2016-02-29;23:00; 00100  ;  -120;  +7;0000000000012;2147483648;12a;-;  ;",
+                "MSWRMOS ;mix  2015090318;062100  ;1969-12-31;00:59; -00100 ;2147483647;-2147483648",
+                "MSWRMOS ;mix  2015090318;062100  ;2015-09-03;02:00;00100",
+                "MSWRMOS ;mix  2015090318;062100  ;2015-09-03;02:00;01200"};
+        for (String line : lines) {
+            List<IndexableContent> expected = new ArrayList<>();
+            CSVProcessor.processCSVdata(line.getBytes("UTF-8"), WeatherParser.delimeter,
+                    WeatherParser.Headers.class, WeatherParser::parse, expected::add);
+            List<IndexableContent> actual = new ArrayList<>();
+            CSVProcessor.processCSVdata(new java.io.ByteArrayInputStream(line.getBytes("UTF-8")),
+                    WeatherParser.delimeter, WeatherParser::parse, actual::add);
+            assertEquals(1, actual.size());
+            assertEquals(expected.get(0).getId(), actual.get(0).getId());
+            assertEquals(expected.get(0).getContent().toUtf8(), actual.get(0).getContent().toUtf8());
+        }
+    }
+
+    @Test
+    public void shouldFailWhenDateIsInvalid() throws Exception {
+        byte[] line = "MSWRMOS;mix;062100;2015-02-30;02:00;00100".getBytes("UTF-8");
+        try {
+            CSVProcessor.processCSVdata(line, WeatherParser.delimeter,
+                    WeatherParser.Headers.class, WeatherParser::parse, content -> { });
+            fail("invalid date is parsed from a CSVRecord");
+        } catch (java.time.DateTimeException e) {
+            // expected
+        }
+        try {
+            CSVProcessor.processCSVdata(new java.io.ByteArrayInputStream(line),
+                    WeatherParser.delimeter, WeatherParser::parse, content -> { });
+            fail("invalid date is parsed from bytes");
+        } catch (java.time.DateTimeException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.berkgokden.csv.parsers;
+
+import com.berkgokden.csv.CSVProcessor;
+import com.berkgokden.csv.IndexableContent;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class WeatherProjectionTest {
+
+    @Test
+    public void shouldIndexOnlyProjectedColumns() throws Exception {
+        WeatherProjection projection = WeatherProjection.parse("location, TTT,td ,pppp", null, null);
+        List<IndexableContent> all = parse(WeatherProjection.ALL);
+        List<IndexableContent> projected = parse(projection);
+        assertEquals(all.size(), projected.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(all.get(i).getId(), projected.get(i).getId());
+            Map<String, Object> expected = XContentHelper.convertToMap(all.get(i).getContent(), true).v2();
+            expected.keySet().retainAll(java.util.Arrays.asList("forecastdatetime", "location", "ttt", "td", "pppp"));
+            Map<String, Object> actual = XContentHelper.convertToMap(projected.get(i).getContent(), true).v2();
+            assertEquals(expected, actual);
+        }
+        assertTrue(projected.get(0).getContent().length() < all.get(0).getContent().length() / 4);
+    }
+
+    @Test
+    public void shouldSkipRowsWhenLocationOrLeadtimeIsFiltered() throws Exception {
+        List<IndexableContent> all = parse(WeatherProjection.ALL);
+        List<IndexableContent> filtered = parse(WeatherProjection.parse(null, "062100, 99999", "6"));
+        int expected = 0;
+        for (IndexableContent document : all) {
+            Map<String, Object> source = XContentHelper.convertToMap(document.getContent(), true).v2();
+            if ("062100".equals(source.get("location"))
+                    && Integer.parseInt((String) source.get("leadtime")) / 100 <= 6) {
+                expected++;
+            }
+        }
+        assertTrue(expected > 0);
+        assertTrue(expected < all.size());
+        assertEquals(expected, filtered.size());
+        for (IndexableContent document : filtered) {
+            assertTrue(document.getId().startsWith("062100|"));
+        }
+        assertEquals(0, parse(WeatherProjection.parse(null, "99999", null)).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailWhenColumnIsUnknown() throws Exception {
+        WeatherProjection.parse("TTT,unknown", null, null);
+    }
+
+    private List<IndexableContent> parse(WeatherProjection projection) throws Exception {
+        List<IndexableContent> documents = new ArrayList<>();
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("file1.csv")) {
+            CSVProcessor.processCSVdata(in, WeatherParser.delimeter,
+                    record -> WeatherParser.parse(record, projection), documents::add);
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,178 @@
+package com.berkgokden.db;
+
+import com.berkgokden.csv.CSVProcessor;
+import com.berkgokden.csv.IndexableContent;
+import com.berkgokden.csv.parsers.WeatherParser;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.xcontent.XContent;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentGenerator;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class BulkBufferTest {
+
+    @Test
+    public void shouldWriteSameJsonAsContentBuilder() throws Exception {
+        IndexableContent first = content("62830|1441249200");
+        first.add("location", "62830");
+        first.add("ttt", 95);
+        first.add("pppp", -2147483648);
+        first.add("forecastdatetime", 1441249200L);
+        first.add("min", Long.MIN_VALUE);
+        first.add("text", "quote\" back\\slash\ttab\nline\u0001ctrl \u00e9\u20ac\ud83d\ude00");
+        first.add("empty", "");
+        first.add("missing", (String) null);
+        IndexableContent second = content(null);
+        second.add("zero", 0);
+
+        BulkBuffer buffer = new BulkBuffer(16);
+        buffer.add(first);
+        buffer.add(second);
+        assertEquals(2, buffer.getActions());
+
+        String expected = "{\"index\":{\"_index\":\"weather\",\"_type\":\"forecast\",\"_id\":\"62830|1441249200\"}}\n"
+                + first.getContent().toUtf8() + "\n"
+                + "{\"index\":{\"_index\":\"weather\",\"_type\":\"forecast\"}}\n"
+                + second.getContent().toUtf8() + "\n";
+        assertEquals(expected, buffer.bytes().toUtf8());
+
+        BulkRequest request = new BulkRequest();
+        request.add(buffer.bytes(), null, null);
+        assertEquals(2, request.numberOfActions());
+        IndexRequest indexRequest = (IndexRequest) request.requests().get(0);
+        assertEquals("weather", indexRequest.index());
+        assertEquals("forecast", indexRequest.type());
+        assertEquals("62830|1441249200", indexRequest.id());
+        assertEquals(first.getContent().toUtf8(), indexRequest.source().toUtf8());
+        assertNull(((IndexRequest) request.requests().get(1)).id());
+    }
+
+    @Test
+    public void shouldReuseBufferWhenCleared() throws Exception {
+        BulkBuffer buffer = new BulkBuffer(64);
+        IndexableContent content = content("id");
+        for (int i = 0; i < 100; i++) {
+            content.add("field" + i, i);
+        }
+        buffer.add(content);
+        int length = buffer.length();
+        buffer.clear();
+        assertEquals(0, buffer.length());
+        assertEquals(0, buffer.getActions());
+        buffer.add(content);
+        assertEquals(length, buffer.length());
+    }
+
+    private static IndexableContent content(String id) {
+        IndexableContent content = new IndexableContent();
+        content.setIndex("weather");
+        content.setType("forecast");
+        content.setId(id);
+        return content;
+    }
+
+    @Test
+    public void shouldCreateSameDocumentsWhenContentTypeIsBinary() throws Exception {
+        List<IndexableContent> documents = weatherDocuments();
+        for (XContentType contentType : new XContentType[] {XContentType.SMILE, XContentType.CBOR}) {
+            BulkBuffer buffer = new BulkBuffer(1024, contentType);
+            for (IndexableContent document : documents) {
+                buffer.add(document);
+            }
+            BulkRequest request = buffer.toBulkRequest();
+            assertEquals(documents.size(), request.numberOfActions());
+            for (int i = 0; i < documents.size(); i++) {
+                IndexRequest indexRequest = (IndexRequest) request.requests().get(i);
+                assertEquals(documents.get(i).getId(), indexRequest.id());
+                assertEquals(documents.get(i).getIndex(), indexRequest.index());
+                assertEquals(contentType, XContentFactory.xContentType(indexRequest.source()));
+                Map<String, Object> expected = XContentHelper.convertToMap(documents.get(i).getContent(), true).v2();
+                Map<String, Object> actual = XContentHelper.convertToMap(indexRequest.source(), true).v2();
+                assertEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void shouldBeSmallerWhenContentTypeIsBinary() throws Exception {
+        List<IndexableContent> documents = weatherDocuments();
+        Map<XContentType, Integer> sizes = new java.util.EnumMap<>(XContentType.class);
+        for (XContentType contentType : new XContentType[] {XContentType.JSON, XContentType.SMILE, XContentType.CBOR}) {
+            BulkBuffer buffer = new BulkBuffer(1024 * 1024, contentType);
+            for (IndexableContent document : documents) {
+                buffer.add(document);
+            }
+            sizes.put(contentType, buffer.length());
+        }
+        assertTrue(sizes.get(XContentType.SMILE) < sizes.get(XContentType.JSON));
+        assertTrue(sizes.get(XContentType.CBOR) < sizes.get(XContentType.JSON));
+    }
+
+    @Test
+    public void shouldWriteSameSmileActionAsGenerator() throws Exception {
+        String[] ids = {"", "a", "62830|1441249200", repeat("x", 32), repeat("x", 33), repeat("x", 64),
+                repeat("x", 65), "\u00e9", repeat("\u00e9", 16) + "x", repeat("\u00e9", 17),
+                repeat("\u00e9", 32), repeat("\u20ac", 30), "emoji \ud83d\ude00"};
+        BulkBuffer buffer = new BulkBuffer(64, XContentType.SMILE);
+        for (String id : ids) {
+            IndexableContent content = content(id);
+            content.add("ttt", 95);
+            buffer.clear();
+            buffer.add(content);
+
+            // action line written by a generator
+            XContent xContent = XContentType.SMILE.xContent();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (XContentGenerator generator = xContent.createGenerator(out)) {
+                generator.writeStartObject();
+                generator.writeFieldName("index");
+                generator.writeStartObject();
+                generator.writeFieldName("_index");
+                generator.writeString("weather");
+                generator.writeFieldName("_type");
+                generator.writeString("forecast");
+                generator.writeFieldName("_id");
+                generator.writeString(id);
+                generator.writeEndObject();
+                generator.writeEndObject();
+            }
+            byte[] expected = out.toByteArray();
+            assertArrayEquals(id, expected, Arrays.copyOf(buffer.bytes().toBytes(), expected.length));
+            assertEquals(xContent.streamSeparator(), buffer.bytes().get(expected.length));
+
+            BulkRequest request = buffer.toBulkRequest();
+            assertEquals(id, ((IndexRequest) request.requests().get(0)).id());
+        }
+    }
+
+    private static String repeat(String value, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    private List<IndexableContent> weatherDocuments() throws Exception {
+        List<IndexableContent> documents = new ArrayList<>();
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("file1.csv")) {
+            CSVProcessor.processCSVdata(in, WeatherParser.delimeter, WeatherParser::parse, documents::add);
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,101 @@
+package com.berkgokden.db;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class BulkControllerTest {
+
+    @Test
+    public void shouldIncreaseBulkSizeThenConcurrency() {
+        BulkController controller = new BulkController(100, 300, 1, 3, 1000);
+        assertEquals(100, controller.getBulkSize());
+        assertEquals(1, controller.getConcurrency());
+
+        controller.onSuccess(controller.getEpoch(), 10);
+        assertEquals(200, controller.getBulkSize());
+        controller.onSuccess(controller.getEpoch(), 10);
+        assertEquals(300, controller.getBulkSize());
+        assertEquals(1, controller.getConcurrency());
+
+        controller.onSuccess(controller.getEpoch(), 10);
+        assertEquals(300, controller.getBulkSize());
+        assertEquals(2, controller.getConcurrency());
+        // one increase per round of concurrent requests
+        controller.onSuccess(controller.getEpoch(), 10);
+        assertEquals(2, controller.getConcurrency());
+        controller.onSuccess(controller.getEpoch(), 10);
+        assertEquals(3, controller.getConcurrency());
+        for (int i = 0; i < 10; i++) {
+            controller.onSuccess(controller.getEpoch(), 10);
+        }
+        assertEquals(300, controller.getBulkSize());
+        assertEquals(3, controller.getConcurrency());
+    }
+
+    @Test
+    public void shouldHalveLimitsWhenRejected() {
+        BulkController controller = grown();
+        controller.onRejected(controller.getEpoch());
+        assertEquals(400, controller.getBulkSize());
+        assertEquals(2, controller.getConcurrency());
+        controller.onRejected(controller.getEpoch());
+        controller.onRejected(controller.getEpoch());
+        controller.onRejected(controller.getEpoch());
+        assertEquals(100, controller.getBulkSize());
+        assertEquals(1, controller.getConcurrency());
+    }
+
+    @Test
+    public void shouldHalveBulkSizeWhenSlow() {
+        BulkController controller = grown();
+        controller.onSuccess(controller.getEpoch(), 5000);
+        assertEquals(400, controller.getBulkSize());
+        assertEquals(4, controller.getConcurrency());
+        controller.onSuccess(controller.getEpoch(), 5000);
+        controller.onSuccess(controller.getEpoch(), 5000);
+        assertEquals(100, controller.getBulkSize());
+        assertEquals(4, controller.getConcurrency());
+        controller.onSuccess(controller.getEpoch(), 5000);
+        assertEquals(100, controller.getBulkSize());
+        assertEquals(2, controller.getConcurrency());
+    }
+
+    @Test
+    public void shouldDecreaseOnceForRequestsSentBeforeDecrease() {
+        BulkController controller = grown();
+        long epoch = controller.getEpoch();
+        controller.onRejected(epoch);
+        controller.onRejected(epoch);
+        controller.onSuccess(epoch, 5000);
+        assertEquals(400, controller.getBulkSize());
+        assertEquals(2, controller.getConcurrency());
+    }
+
+    @Test
+    public void shouldKeepFixedLimits() {
+        BulkController controller = BulkController.fixed(1000, 2);
+        controller.onSuccess(controller.getEpoch(), 10);
+        controller.onSuccess(controller.getEpoch(), Long.MAX_VALUE - 1);
+        controller.onRejected(controller.getEpoch());
+        assertEquals(1000, controller.getBulkSize());
+        assertEquals(2, controller.getConcurrency());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidLimits() {
+        new BulkController(100, 50, 1, 1, 1000);
+    }
+
+    private BulkController grown() {
+        BulkController controller = new BulkController(100, 800, 1, 4, 1000);
+        while (controller.getConcurrency() < 4) {
+            controller.onSuccess(controller.getEpoch(), 10);
+        }
+        assertEquals(800, controller.getBulkSize());
+        return controller;
+    }
+}
@@ -0,0 +1,137 @@
+package com.berkgokden.db;
+
+import com.berkgokden.csv.IndexableContent;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class BulkIndexerTest {
+
+    private ElasticsearchServer elasticsearchServer;
+
+    @Before
+    public void setup() throws Exception {
+        elasticsearchServer = new ElasticsearchServer();
+        elasticsearchServer.start();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        elasticsearchServer.shutdown();
+    }
+
+    @Test
+    public void shouldIndexAllDocumentsWhenBulksAreFull() throws Exception {
+        indexAndCheck("bulk-index", XContentType.JSON);
+    }
+
+    @Test
+    public void shouldIndexAllDocumentsWhenContentTypeIsBinary() throws Exception {
+        indexAndCheck("bulk-smile", XContentType.SMILE);
+        indexAndCheck("bulk-cbor", XContentType.CBOR);
+    }
+
+    @Test
+    public void shouldIndexAllDocumentsWhenLimitsAreAdapted() throws Exception {
+        BulkController controller = new BulkController(1024, 8 * 1024, 1, 4, 30000);
+        indexAndCheck("bulk-adaptive", new BulkIndexer(elasticsearchServer.getClient(),
+                10000, controller, 0, 3, 100, XContentType.JSON));
+        assertEquals(8 * 1024, controller.getBulkSize());
+        assertTrue(controller.getConcurrency() > 1);
+    }
+
+    @Test
+    public void shouldReportDocumentsFailedWithClientError() throws Exception {
+        elasticsearchServer.getClient().prepareIndex("bulk-failed", "bulk-type", "mapped")
+                .setSource("value", 1).get();
+        BulkIndexer bulkIndexer = new BulkIndexer(elasticsearchServer.getClient(),
+                100, 1024 * 1024, 0, 1, 3, 100);
+        List<String> succeeded = Collections.synchronizedList(new ArrayList<>());
+        List<String> failed = Collections.synchronizedList(new ArrayList<>());
+        List<String> refused = Collections.synchronizedList(new ArrayList<>());
+        bulkIndexer.setListener(new BulkIndexer.Listener() {
+            @Override
+            public void onSuccess(IndexableContent indexableContent) {
+                succeeded.add(indexableContent.getId());
+            }
+
+            @Override
+            public void onFailure(IndexableContent indexableContent, String message) {
+                failed.add(indexableContent.getId());
+            }
+
+            @Override
+            public void onPermanentFailure(IndexableContent indexableContent, String message) {
+                refused.add(indexableContent.getId());
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            IndexableContent content = new IndexableContent();
+            content.setIndex("bulk-failed");
+            content.setType("bulk-type");
+            content.setId("id-" + i);
+            content.add("value", i == 3 ? "not a number" : String.valueOf(i));
+            bulkIndexer.add(content);
+        }
+        assertTrue(bulkIndexer.awaitClose(30, TimeUnit.SECONDS));
+        assertEquals(9, succeeded.size());
+        // mapping errors are not retried
+        assertEquals(Collections.singletonList("id-3"), refused);
+        assertTrue(failed.isEmpty());
+    }
+
+    private void indexAndCheck(String index, XContentType contentType) throws Exception {
+        indexAndCheck(index, new BulkIndexer(elasticsearchServer.getClient(),
+                100, 1024 * 1024, 0, 1, 3, 100, contentType));
+    }
+
+    private void indexAndCheck(String index, BulkIndexer bulkIndexer) throws Exception {
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        bulkIndexer.setListener(new BulkIndexer.Listener() {
+            @Override
+            public void onSuccess(IndexableContent indexableContent) {
+                succeeded.incrementAndGet();
+            }
+
+            @Override
+            public void onFailure(IndexableContent indexableContent, String message) {
+                failed.incrementAndGet();
+            }
+        });
+        for (int i = 0; i < 250; i++) {
+            IndexableContent content = new IndexableContent();
+            content.setIndex(index);
+            content.setType("bulk-type");
+            content.setId("id-" + i);
+            content.add("location", "0621" + i);
+            content.add("value", i);
+            bulkIndexer.add(content);
+        }
+        assertTrue(bulkIndexer.awaitClose(30, TimeUnit.SECONDS));
+        assertEquals(250, succeeded.get());
+        assertEquals(0, failed.get());
+
+        elasticsearchServer.getClient().admin().indices().prepareRefresh(index).get();
+        long count = elasticsearchServer.getClient().prepareSearch(index)
+                .setSize(0).get().getHits().getTotalHits();
+        assertEquals(250, count);
+        GetResponse response = elasticsearchServer.getClient()
+                .prepareGet(index, "bulk-type", "id-249").get();
+        assertEquals("0621249", response.getSource().get("location"));
+        assertEquals(249, response.getSource().get("value"));
+    }
+}
@@ -0,0 +1,95 @@
+package com.berkgokden.db;
+
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class BulkLoadModeTest {
+
+    private ElasticsearchServer elasticsearchServer;
+    private Path directory;
+
+    @Before
+    public void setup() throws Exception {
+        elasticsearchServer = new ElasticsearchServer();
+        elasticsearchServer.start();
+        directory = Files.createTempDirectory("bulk-load");
+    }
+
+    @After
+    public void teardown() throws Exception {
+        elasticsearchServer.shutdown();
+        Files.list(directory).forEach(path -> path.toFile().delete());
+        Files.delete(directory);
+    }
+
+    @Test
+    public void shouldTuneSettingsAndRestoreThem() throws Exception {
+        Path stateFile = directory.resolve("bulkload.state");
+        BulkLoadMode bulkLoadMode = new BulkLoadMode(elasticsearchServer.getClient(), stateFile, 60000, 0);
+        bulkLoadMode.touch("bulk-load");
+        assertSettings("bulk-load", "-1", "0");
+        assertTrue(Files.exists(stateFile));
+        assertTrue(bulkLoadMode.getActive().contains("bulk-load"));
+
+        bulkLoadMode.exit();
+        assertSettings("bulk-load", "1s", "1");
+        assertFalse(Files.exists(stateFile));
+        assertTrue(bulkLoadMode.getActive().isEmpty());
+        bulkLoadMode.close();
+    }
+
+    @Test
+    public void shouldRestoreSettingsAfterCrash() throws Exception {
+        Path stateFile = directory.resolve("bulkload.state");
+        elasticsearchServer.getClient().admin().indices().prepareCreate("bulk-crash")
+                .setSettings("{\"index.refresh_interval\":\"5s\",\"index.number_of_replicas\":2}").get();
+        BulkLoadMode crashed = new BulkLoadMode(elasticsearchServer.getClient(), stateFile, 60000, 0);
+        crashed.touch("bulk-crash");
+        assertSettings("bulk-crash", "-1", "0");
+        // close leaves settings as a crash does
+        crashed.close();
+        assertSettings("bulk-crash", "-1", "0");
+
+        // next start
+        BulkLoadMode bulkLoadMode = new BulkLoadMode(elasticsearchServer.getClient(), stateFile, 60000, 0);
+        bulkLoadMode.recover();
+        assertSettings("bulk-crash", "5s", "2");
+        assertFalse(Files.exists(stateFile));
+        bulkLoadMode.close();
+    }
+
+    @Test
+    public void shouldRestoreSettingsWhenIdle() throws Exception {
+        Path stateFile = directory.resolve("bulkload.state");
+        BulkLoadMode bulkLoadMode = new BulkLoadMode(elasticsearchServer.getClient(), stateFile, 100, 1);
+        bulkLoadMode.touch("bulk-idle");
+        elasticsearchServer.getClient().prepareIndex("bulk-idle", "forecast", "1").setSource("value", 1).get();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (Files.exists(stateFile) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertFalse(Files.exists(stateFile));
+        assertSettings("bulk-idle", "1s", "1");
+        // restore refreshes the index
+        assertEquals(1, elasticsearchServer.getClient().prepareSearch("bulk-idle")
+                .setSize(0).get().getHits().getTotalHits());
+        bulkLoadMode.close();
+    }
+
+    private void assertSettings(String index, String refreshInterval, String numberOfReplicas) {
+        GetSettingsResponse response = elasticsearchServer.getClient().admin().indices()
+                .prepareGetSettings(index).get();
+        assertEquals(refreshInterval, response.getSetting(index, "index.refresh_interval"));
+        assertEquals(numberOfReplicas, response.getSetting(index, "index.number_of_replicas"));
+    }
+}
@@ -0,0 +1,130 @@
+package com.berkgokden.db;
+
+import com.berkgokden.csv.IndexableContent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class ContentHashIndexTest {
+
+    private Path directory;
+
+    @Before
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("content-hash-index");
+    }
+
+    @After
+    public void teardown() throws Exception {
+        Files.list(directory).forEach(path -> path.toFile().delete());
+        Files.delete(directory);
+    }
+
+    @Test
+    public void shouldDetectUnchangedDocuments() throws Exception {
+        try (ContentHashIndex index = new ContentHashIndex(directory.resolve("hashes"),
+                Collections.singletonList("model"))) {
+            IndexableContent content = content("62830|1441249200", "ECMWF", 95);
+            long hash = index.hash(content);
+            assertFalse(index.isUnchanged(content, hash));
+            index.put(content, hash);
+            assertTrue(index.isUnchanged(content, hash));
+            assertEquals(1, index.size());
+
+            IndexableContent otherModel = content("62830|1441249200", "GFS", 95);
+            assertEquals(hash, index.hash(otherModel));
+            assertTrue(index.isUnchanged(otherModel, index.hash(otherModel)));
+
+            IndexableContent changed = content("62830|1441249200", "ECMWF", 96);
+            assertFalse(index.isUnchanged(changed, index.hash(changed)));
+
+            IndexableContent otherId = content("62830|1441252800", "ECMWF", 95);
+            assertFalse(index.isUnchanged(otherId, index.hash(otherId)));
+
+            index.put(changed, index.hash(changed));
+            assertEquals(1, index.size());
+            assertFalse(index.isUnchanged(content, hash));
+        }
+    }
+
+    @Test
+    public void shouldKeepHashesAfterReopen() throws Exception {
+        Path file = directory.resolve("hashes");
+        IndexableContent content = content("62830|1441249200", "ECMWF", 95);
+        long hash;
+        try (ContentHashIndex index = new ContentHashIndex(file, Collections.emptyList())) {
+            hash = index.hash(content);
+            index.put(content, hash);
+        }
+        try (ContentHashIndex index = new ContentHashIndex(file, Collections.emptyList())) {
+            assertEquals(1, index.size());
+            assertTrue(index.isUnchanged(content, hash));
+        }
+    }
+
+    @Test
+    public void shouldGrowWhenFull() throws Exception {
+        Path file = directory.resolve("hashes");
+        try (ContentHashIndex index = new ContentHashIndex(file, Collections.emptyList(), 16)) {
+            for (int i = 0; i < 1000; i++) {
+                IndexableContent content = content("id-" + i, "ECMWF", i);
+                index.put(content, index.hash(content));
+            }
+            assertEquals(1000, index.size());
+        }
+        try (ContentHashIndex index = new ContentHashIndex(file, Collections.emptyList(), 16)) {
+            assertEquals(1000, index.size());
+            for (int i = 0; i < 1000; i++) {
+                IndexableContent content = content("id-" + i, "ECMWF", i);
+                assertTrue(index.isUnchanged(content, index.hash(content)));
+            }
+        }
+    }
+
+    @Test
+    public void shouldClearWhenFullAtMaxCapacity() throws Exception {
+        Path file = directory.resolve("hashes");
+        try (ContentHashIndex index = new ContentHashIndex(file, Collections.emptyList(), 16, 64)) {
+            for (int i = 0; i < 48; i++) {
+                IndexableContent content = content("id-" + i, "ECMWF", i);
+                index.put(content, index.hash(content));
+            }
+            assertEquals(48, index.size());
+            // 3/4 of 64 slots are used, next document clears the table
+            IndexableContent content = content("id-48", "ECMWF", 48);
+            index.put(content, index.hash(content));
+            assertEquals(1, index.size());
+            assertTrue(index.isUnchanged(content, index.hash(content)));
+            IndexableContent first = content("id-0", "ECMWF", 0);
+            assertFalse(index.isUnchanged(first, index.hash(first)));
+        }
+    }
+
+    @Test
+    public void shouldReplaceInvalidFile() throws Exception {
+        Path file = directory.resolve("hashes");
+        Files.write(file, "not an index".getBytes());
+        try (ContentHashIndex index = new ContentHashIndex(file, Collections.emptyList())) {
+            assertEquals(0, index.size());
+        }
+    }
+
+    private IndexableContent content(String id, String model, int value) {
+        IndexableContent content = new IndexableContent();
+        content.setIndex("weather");
+        content.setType("forecast");
+        content.setId(id);
+        content.add("model", model);
+        content.add("ttt", value);
+        return content;
+    }
+}
@@ -0,0 +1,150 @@
+package com.berkgokden.db;
+
+import com.berkgokden.csv.IndexableContent;
+import org.elasticsearch.client.Client;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class DeadLetterFileTest {
+
+    private ElasticsearchServer elasticsearchServer;
+    private Path directory;
+
+    @Before
+    public void setup() throws Exception {
+        elasticsearchServer = new ElasticsearchServer();
+        elasticsearchServer.start();
+        directory = Files.createTempDirectory("dead-letter");
+    }
+
+    @After
+    public void teardown() throws Exception {
+        elasticsearchServer.shutdown();
+        Files.list(directory).forEach(path -> path.toFile().delete());
+        Files.delete(directory);
+    }
+
+    @Test
+    public void shouldReplayDocumentsAndKeepFailedOnes() throws Exception {
+        elasticsearchServer.getClient().prepareIndex("dead-letter", "forecast", "mapped")
+                .setSource("value", 1).get();
+
+        Path file = directory.resolve("deadletters.bulk");
+        DeadLetterFile deadLetterFile = new DeadLetterFile(file);
+        assertFalse(Files.exists(file));
+        for (int i = 0; i < 5; i++) {
+            deadLetterFile.write(content("id-" + i, String.valueOf(i)));
+        }
+        deadLetterFile.write(content("bad", "not a number"));
+        assertEquals(6, deadLetterFile.getCount());
+        assertEquals(12, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+
+        assertEquals(5, deadLetterFile.replay(elasticsearchServer.getClient(), 2));
+        assertFalse(Files.exists(directory.resolve("deadletters.bulk.replay")));
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).contains("\"_id\":\"bad\""));
+
+        elasticsearchServer.getClient().admin().indices().prepareRefresh("dead-letter").get();
+        assertEquals("4", String.valueOf(elasticsearchServer.getClient()
+                .prepareGet("dead-letter", "forecast", "id-4").get().getSource().get("value")));
+
+        // failed document is replayed again from the new file
+        assertEquals(0, deadLetterFile.replay(elasticsearchServer.getClient(), 2));
+        assertEquals(2, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+        deadLetterFile.close();
+    }
+
+    @Test
+    public void shouldReturnZeroWhenThereIsNothingToReplay() throws Exception {
+        DeadLetterFile deadLetterFile = new DeadLetterFile(directory.resolve("empty.bulk"));
+        assertEquals(0, deadLetterFile.replay(elasticsearchServer.getClient(), 10));
+    }
+
+    @Test
+    public void shouldRefuseReplayWhenFileIsReplayedByAnotherProcess() throws Exception {
+        Path file = directory.resolve("locked.bulk");
+        DeadLetterFile deadLetterFile = new DeadLetterFile(file);
+        deadLetterFile.write(content("id-0", "0"));
+        Path replaying = directory.resolve("locked.bulk.replay");
+        Files.move(file, replaying);
+        // a replay stopped in another process left the file locked
+        try (FileChannel channel = FileChannel.open(replaying, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            deadLetterFile.replay(elasticsearchServer.getClient(), 10);
+            fail("File locked by another replay should not be replayed");
+        } catch (IOException e) {
+            assertTrue(Files.exists(replaying));
+        }
+        // documents written meanwhile go to a new file
+        deadLetterFile.write(content("id-1", "1"));
+        assertEquals(2, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+        assertEquals(1, deadLetterFile.replay(elasticsearchServer.getClient(), 10));
+        assertFalse(Files.exists(replaying));
+        assertEquals(1, deadLetterFile.replay(elasticsearchServer.getClient(), 10));
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void shouldContinueStoppedReplayAfterLastSentBatch() throws Exception {
+        Path file = directory.resolve("stopped.bulk");
+        DeadLetterFile deadLetterFile = new DeadLetterFile(file);
+        for (int i = 0; i < 6; i++) {
+            // documents without an id would be indexed twice when a batch is sent again
+            deadLetterFile.write(content(null, String.valueOf(i)));
+        }
+        Client client = elasticsearchServer.getClient();
+        AtomicInteger bulks = new AtomicInteger();
+        Client stopping = (Client) Proxy.newProxyInstance(Client.class.getClassLoader(),
+                new Class<?>[]{Client.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("bulk") && bulks.incrementAndGet() == 2) {
+                        // worker process is killed while the second batch is sent
+                        throw new ThreadDeath();
+                    }
+                    try {
+                        return method.invoke(client, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        try {
+            deadLetterFile.replay(stopping, 2);
+            fail("Replay should stop");
+        } catch (ThreadDeath e) {
+            assertTrue(Files.exists(directory.resolve("stopped.bulk.replay.offset")));
+        }
+
+        assertEquals(4, deadLetterFile.replay(client, 2));
+        assertFalse(Files.exists(directory.resolve("stopped.bulk.replay")));
+        assertFalse(Files.exists(directory.resolve("stopped.bulk.replay.offset")));
+        client.admin().indices().prepareRefresh("dead-letter").get();
+        assertEquals(6, client.prepareSearch("dead-letter").setSize(0).get().getHits().getTotalHits());
+    }
+
+    private IndexableContent content(String id, String value) {
+        IndexableContent content = new IndexableContent();
+        content.setIndex("dead-letter");
+        content.setType("forecast");
+        content.setId(id);
+        content.add("value", value);
+        return content;
+    }
+}
@@ -44,6 +44,10 @@ public class ElasticsearchServer {
         node.start();
     }
 
+    public Client getClient() {
+        return node.client();
+    }
+
     public void shutdown() {
         node.close();
         deleteDataDirectory();
@@ -0,0 +1,81 @@
+package com.berkgokden.ftp;
+
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class DownloadCacheTest {
+
+    @Test
+    public void shouldPassWhenLeastRecentlyUsedFileEvicted() throws Exception {
+        Path directory = Files.createTempDirectory("cache");
+        DownloadCache cache = new DownloadCache(directory, 250);
+        String a = DownloadCache.key("default", "a.csv.bz2", 100, 1000L);
+        String b = DownloadCache.key("default", "b.csv.bz2", 100, 1000L);
+        String c = DownloadCache.key("default", "c.csv.bz2", 100, 1000L);
+
+        cache.put(a, download(100, (byte) 'a')).close();
+        cache.put(b, download(100, (byte) 'b')).close();
+        // a is used again so b is the least recently used one
+        cache.open(a).close();
+        cache.put(c, download(100, (byte) 'c')).close();
+
+        assertNull(cache.open(b));
+        try (InputStream in = cache.open(a)) {
+            assertArrayEquals(content(100, (byte) 'a'), IOUtils.toByteArray(in));
+        }
+        assertNotNull(cache.open(c));
+        assertEquals(200, cache.getSize());
+        // another version of the same file is not a hit
+        assertNull(cache.open(DownloadCache.key("default", "a.csv.bz2", 100, 2000L)));
+    }
+
+    @Test
+    public void shouldPassWhenCacheReloadedAfterRestart() throws Exception {
+        Path directory = Files.createTempDirectory("cache");
+        String a = DownloadCache.key("default", "a.csv.bz2", 100, 1000L);
+        new DownloadCache(directory, 1000).put(a, download(100, (byte) 'a')).close();
+        // leftover of an interrupted copy
+        Files.write(directory.resolve("broken.data.part"), new byte[10]);
+
+        DownloadCache cache = new DownloadCache(directory, 1000);
+        assertEquals(1, cache.getCount());
+        assertEquals(100, cache.getSize());
+        assertFalse(Files.exists(directory.resolve("broken.data.part")));
+        try (InputStream in = cache.open(a)) {
+            assertArrayEquals(content(100, (byte) 'a'), IOUtils.toByteArray(in));
+        }
+    }
+
+    @Test
+    public void shouldPassWhenLargeFileNotCached() throws Exception {
+        DownloadCache cache = new DownloadCache(Files.createTempDirectory("cache"), 50);
+        Path file = download(100, (byte) 'a');
+        try (InputStream in = cache.put(DownloadCache.key("default", "a.csv.bz2", 100, 1000L), file)) {
+            assertArrayEquals(content(100, (byte) 'a'), IOUtils.toByteArray(in));
+        }
+        assertFalse(Files.exists(file));
+        assertEquals(0, cache.getCount());
+    }
+
+    private static Path download(int length, byte value) throws Exception {
+        Path file = Files.createTempFile("download", ".spool");
+        Files.write(file, content(length, value));
+        return file;
+    }
+
+    private static byte[] content(int length, byte value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, value);
+        return data;
+    }
+}
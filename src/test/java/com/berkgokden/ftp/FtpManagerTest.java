@@ -1,9 +1,18 @@
 package com.berkgokden.ftp;
 
 import org.apache.commons.compress.utils.IOUtils;
+import org.apache.commons.net.ftp.FTPClient;
 import org.junit.Test;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.*;
 
@@ -45,4 +54,211 @@ public class FtpManagerTest extends EmbeddedFtpServer {
         byte[] uncompressedData = FtpManager.uncompress(compressedData);
         assertArrayEquals(expectedUncompressedData, uncompressedData);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldPassWhenFileStreamedAndUncompressedCorrectly() throws Exception {
+        FtpManager ftpManager = FtpManager.getInstance();
+        ftpManager.setServer(server);
+        ftpManager.setUser(username);
+        ftpManager.setPassword(password);
+        ftpManager.setPort(port);
+
+        String uncompressFilePath = getClass().getClassLoader()
+                .getResource("file1.csv").getPath();
+        byte[] expectedUncompressedData = IOUtils
+                .toByteArray(new FileInputStream(uncompressFilePath));
+
+        byte[] uncompressedData;
+        try (InputStream in = FtpManager.uncompress(ftpManager.getFileStream("file1.csv.bz2"))) {
+            uncompressedData = IOUtils.toByteArray(in);
+        }
+        assertArrayEquals(expectedUncompressedData, uncompressedData);
+
+        // control connection should be usable after the stream is closed
+        assertArrayEquals(expectedUncompressedData, ftpManager.getFile("file1.csv"));
+    }
+
+    @Test
+    public void shouldPassWhenFilesDownloadedConcurrently() throws Exception {
+        FtpManager ftpManager = FtpManager.getInstance();
+        ftpManager.setServer(server);
+        ftpManager.setUser(username);
+        ftpManager.setPassword(password);
+        ftpManager.setPort(port);
+
+        String expectedFilePath = getClass().getClassLoader()
+                .getResource("file1.csv").getPath();
+        byte[] expectedFileData = IOUtils
+                .toByteArray(new FileInputStream(expectedFilePath));
+
+        int numberOfDownloads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfDownloads);
+        List<Future<byte[]>> downloads = new ArrayList<>();
+        for (int i = 0; i < numberOfDownloads; i++) {
+            downloads.add(executor.submit(() -> ftpManager.getFile("file1.csv")));
+        }
+        for (Future<byte[]> download : downloads) {
+            assertArrayEquals(expectedFileData, download.get());
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldPassWhenBrokenConnectionEvicted() throws Exception {
+        FtpManager ftpManager = FtpManager.getInstance();
+        ftpManager.setServer(server);
+        ftpManager.setUser(username);
+        ftpManager.setPassword(password);
+        ftpManager.setPort(port);
+
+        FTPClient broken = ftpManager.borrowFtp();
+        broken.logout();
+        ftpManager.returnFtp(broken);
+
+        FTPClient client = ftpManager.borrowFtp();
+        assertTrue(client.sendNoOp());
+        ftpManager.returnFtp(client);
+    }
+
+    @Test
+    public void shouldPassWhenPartialDownloadResumed() throws Exception {
+        FtpManager ftpManager = FtpManager.getInstance();
+        ftpManager.setServer(server);
+        ftpManager.setUser(username);
+        ftpManager.setPassword(password);
+        ftpManager.setPort(port);
+        ftpManager.setSpoolDirectory(Files.createTempDirectory("spool"));
+
+        String expectedFilePath = getClass().getClassLoader()
+                .getResource("file1.csv.bz2").getPath();
+        byte[] expectedFileData = IOUtils
+                .toByteArray(new FileInputStream(expectedFilePath));
+
+        // leave the first half of the file in the spool as a failed download would
+        FTPClient client = ftpManager.borrowFtp();
+        String modificationTime = client.getModificationTime("file1.csv.bz2");
+        ftpManager.returnFtp(client);
+        Path partFile = ftpManager.getSpoolFile("file1.csv.bz2", modificationTime);
+        Files.createDirectories(partFile.getParent());
+        Files.write(partFile, Arrays.copyOf(expectedFileData, expectedFileData.length / 2));
+
+        Path spoolFile = ftpManager.downloadToSpool("file1.csv.bz2");
+        assertFalse(Files.exists(partFile));
+        assertArrayEquals(expectedFileData, Files.readAllBytes(spoolFile));
+
+        try (InputStream in = new MappedFileInputStream(spoolFile, true)) {
+            assertArrayEquals(expectedFileData, IOUtils.toByteArray(in));
+        }
+        assertFalse(Files.exists(spoolFile));
+    }
+
+    @Test
+    public void shouldPassWhenCachedFileReadAgain() throws Exception {
+        FtpManager ftpManager = FtpManager.getInstance();
+        ftpManager.setServer(server);
+        ftpManager.setUser(username);
+        ftpManager.setPassword(password);
+        ftpManager.setPort(port);
+        DownloadCache cache = new DownloadCache(Files.createTempDirectory("cache"), 10 * 1024 * 1024);
+        ftpManager.setDownloadCache(cache);
+
+        String expectedFilePath = getClass().getClassLoader()
+                .getResource("file1.csv.bz2").getPath();
+        byte[] expectedFileData = IOUtils
+                .toByteArray(new FileInputStream(expectedFilePath));
+        try {
+            for (int i = 0; i < 2; i++) {
+                try (InputStream in = ftpManager.getCachedFileStream("file1.csv.bz2",
+                        expectedFileData.length, 1000L)) {
+                    assertArrayEquals(expectedFileData, IOUtils.toByteArray(in));
+                }
+            }
+            assertEquals(1, cache.getCount());
+            assertEquals(expectedFileData.length, cache.getSize());
+        } finally {
+            ftpManager.setDownloadCache(null);
+        }
+    }
+
+    @Test
+    public void shouldPassWhenFileStreamedFromOffset() throws Exception {
+        FtpManager ftpManager = FtpManager.getInstance();
+        ftpManager.setServer(server);
+        ftpManager.setUser(username);
+        ftpManager.setPassword(password);
+        ftpManager.setPort(port);
+
+        String expectedFilePath = getClass().getClassLoader()
+                .getResource("file1.csv").getPath();
+        byte[] expectedFileData = IOUtils
+                .toByteArray(new FileInputStream(expectedFilePath));
+        int offset = expectedFileData.length / 3;
+
+        try (InputStream in = ftpManager.getFileStream("file1.csv", offset)) {
+            assertArrayEquals(Arrays.copyOfRange(expectedFileData, offset, expectedFileData.length),
+                    IOUtils.toByteArray(in));
+        }
+        // closing before the end aborts the transfer
+        try (InputStream in = ftpManager.getFileStream("file1.csv", offset)) {
+            assertEquals(expectedFileData[offset], (byte) in.read());
+        }
+        assertArrayEquals(expectedFileData, ftpManager.getFile("file1.csv"));
+    }
+
+    @Test
+    public void shouldPassWhenMissingFileNotResumed() throws Exception {
+        FtpManager ftpManager = FtpManager.getInstance();
+        ftpManager.setServer(server);
+        ftpManager.setUser(username);
+        ftpManager.setPassword(password);
+        ftpManager.setPort(port);
+        ftpManager.setSpoolDirectory(Files.createTempDirectory("spool"));
+
+        Path partFile = ftpManager.getSpoolFile("missing.csv", "");
+        Files.createDirectories(partFile.getParent());
+        Files.write(partFile, new byte[] {1, 2, 3});
+        try {
+            ftpManager.downloadToSpool("missing.csv");
+            fail("Missing file should not be downloaded");
+        } catch (FileNotFoundException e) {
+            assertFalse(Files.exists(partFile));
+        }
+    }
+
+    @Test
+    public void shouldPassWhenSessionReleasedAfterDisconnectIsClosed() throws Exception {
+        FtpManager ftpManager = FtpManager.getInstance();
+        ftpManager.setServer(server);
+        ftpManager.setUser(username);
+        ftpManager.setPassword(password);
+        ftpManager.setPort(port);
+
+        FTPClient client = ftpManager.borrowFtp();
+        FtpConnectionPool closedPool = ftpManager.getPool();
+        ftpManager.disconnect();
+        ftpManager.returnFtp(client);
+        assertFalse(client.isConnected());
+        assertEquals(0, closedPool.getIdleCount());
+        assertEquals(0, ftpManager.getPool().getIdleCount());
+    }
+
+    @Test
+    public void shouldPassWhenIdleSessionsStayWithinMaxSize() throws Exception {
+        FtpManager ftpManager = FtpManager.getInstance();
+        ftpManager.setServer(server);
+        ftpManager.setUser(username);
+        ftpManager.setPassword(password);
+        ftpManager.setPort(port);
+
+        FtpConnectionPool pool = new FtpConnectionPool(ftpManager, 2, 2, 100, 1000);
+        FTPClient first = pool.borrow();
+        FTPClient second = pool.borrow();
+        Thread.sleep(500);
+        // both sessions are borrowed, no idle session is created
+        assertEquals(0, pool.getIdleCount());
+        pool.release(first);
+        pool.release(second);
+        assertEquals(2, pool.getIdleCount());
+        pool.close();
+    }
+}
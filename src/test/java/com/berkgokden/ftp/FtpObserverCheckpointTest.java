@@ -0,0 +1,69 @@
+package com.berkgokden.ftp;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class FtpObserverCheckpointTest {
+
+    @Test
+    public void shouldPassWhenSavedCheckpointLoadedCorrectly() throws Exception {
+        Path directory = Files.createTempDirectory("checkpoint");
+        Path path = directory.resolve("ftpobserver.checkpoint");
+
+        FtpObserverCheckpoint checkpoint = new FtpObserverCheckpoint(path);
+        assertFalse(checkpoint.load());
+
+        Map<Long, Set<String>> fileMap = new HashMap<>();
+        fileMap.put(1000L, new HashSet<>(Arrays.asList("a.csv.bz2", "b c.csv.bz2")));
+        fileMap.put(2000L, new HashSet<>(Arrays.asList("d.csv.bz2")));
+        checkpoint.save(2000L, fileMap);
+        assertFalse(Files.exists(directory.resolve("ftpobserver.checkpoint.tmp")));
+
+        FtpObserverCheckpoint loaded = new FtpObserverCheckpoint(path);
+        assertTrue(loaded.load());
+        assertEquals(2000L, loaded.getTimeStamp());
+        assertEquals(fileMap, loaded.getFileMap());
+
+        Files.delete(path);
+        Files.delete(directory);
+    }
+
+    @Test
+    public void shouldPassWhenSizesSavedAndOldFormatLoaded() throws Exception {
+        Path directory = Files.createTempDirectory("checkpoint");
+        Path path = directory.resolve("ftpobserver.checkpoint");
+
+        Map<Long, Set<String>> fileMap = new HashMap<>();
+        fileMap.put(1000L, new HashSet<>(Arrays.asList("a.csv.bz2", "b\tc.csv.bz2")));
+        Map<String, Long> sizes = new HashMap<>();
+        sizes.put("a.csv.bz2", 42L);
+        new FtpObserverCheckpoint(path).save(1000L, fileMap, sizes);
+
+        FtpObserverCheckpoint loaded = new FtpObserverCheckpoint(path);
+        assertTrue(loaded.load());
+        assertEquals(fileMap, loaded.getFileMap());
+        assertEquals(sizes, loaded.getSizes());
+
+        // checkpoints written before sizes are saved have no size column
+        Files.write(path, Arrays.asList("3000", "3000\told.csv.bz2"));
+        assertTrue(loaded.load());
+        assertEquals(3000L, loaded.getTimeStamp());
+        assertEquals(new HashSet<>(Arrays.asList("old.csv.bz2")), loaded.getFileMap().get(3000L));
+        assertTrue(loaded.getSizes().isEmpty());
+
+        Files.delete(path);
+        Files.delete(directory);
+    }
+}
@@ -3,8 +3,13 @@ package com.berkgokden.ftp;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.junit.Assert.*;
 
@@ -45,4 +50,144 @@ public class FtpObserverTest extends EmbeddedFtpServer {
             ftpHome.delete();
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldPassWhenFilesInSubfoldersProcessed() throws Exception {
+        FtpManager ftpManager = FtpManager.getInstance();
+        ftpManager.setServer(server);
+        ftpManager.setUser(username);
+        ftpManager.setPassword(password);
+        ftpManager.setPort(port);
+        long period = 200;
+        Set<String> files = ConcurrentHashMap.newKeySet();
+        FtpObserver ftpObserver = new FtpObserver(ftpManager, "", period, 0L,
+                ftpFile -> {
+                    files.add(ftpFile.getName());
+                });
+        ftpObserver.setRecursive(true);
+        ftpObserver.start();
+
+        Thread.sleep(5 * period);
+        File subFolder = new File(homeDirectory + "recursive.testfolder/2016-07-29");
+        subFolder.mkdirs();
+        File ftpFile = new File(subFolder, "0.testfile");
+        ftpFile.createNewFile();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!files.contains("recursive.testfolder/2016-07-29/0.testfile")
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(period);
+        }
+        ftpObserver.setKeepAlive(false);
+        assertTrue(files.contains("recursive.testfolder/2016-07-29/0.testfile"));
+        ftpFile.delete();
+        subFolder.delete();
+        subFolder.getParentFile().delete();
+    }
+
+    @Test
+    public void shouldPassWhenGrowingFileWaitsUntilStable() throws Exception {
+        FtpManager ftpManager = FtpManager.getInstance();
+        ftpManager.setServer(server);
+        ftpManager.setUser(username);
+        ftpManager.setPassword(password);
+        ftpManager.setPort(port);
+        long period = 200;
+        Set<String> files = ConcurrentHashMap.newKeySet();
+        FtpObserver ftpObserver = new FtpObserver(ftpManager, "", period, 0L,
+                ftpFile -> {
+                    files.add(ftpFile.getName());
+                });
+        ftpObserver.setStablePolls(3);
+        ftpObserver.start();
+
+        Thread.sleep(5 * period);
+        File ftpFile = new File(homeDirectory + "growing.testfile");
+        try (FileOutputStream out = new FileOutputStream(ftpFile)) {
+            // file keeps growing for a while, observer must not pass it yet
+            for (int i = 0; i < 10; i++) {
+                out.write(new byte[1024]);
+                out.flush();
+                Thread.sleep(period);
+                assertFalse(files.contains("growing.testfile"));
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!files.contains("growing.testfile") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(period);
+        }
+        ftpObserver.setKeepAlive(false);
+        assertTrue(files.contains("growing.testfile"));
+        ftpFile.delete();
+    }
+
+    @Test
+    public void shouldPassWhenHeldFileKeptOutOfCheckpoint() throws Exception {
+        FtpManager ftpManager = FtpManager.getInstance();
+        ftpManager.setServer(server);
+        ftpManager.setUser(username);
+        ftpManager.setPassword(password);
+        ftpManager.setPort(port);
+        long period = 500;
+        Path directory = Files.createTempDirectory("checkpoint");
+        Path path = directory.resolve("ftpobserver.checkpoint");
+        Map<String, Long> dispatched = new ConcurrentHashMap<>();
+        FtpObserver ftpObserver = new FtpObserver(ftpManager, "", period, 0L, null);
+        ftpObserver.setConsumer(ftpFile -> {
+            ftpObserver.hold(ftpFile.getName(), ftpFile.getTimestamp().getTimeInMillis());
+            dispatched.put(ftpFile.getName(), ftpFile.getTimestamp().getTimeInMillis());
+        });
+        ftpObserver.setCheckpoint(new FtpObserverCheckpoint(path));
+        File held = new File(homeDirectory + "held.testfile");
+        held.createNewFile();
+        ftpObserver.start();
+        try {
+            Thread.sleep(6 * period);
+            assertTrue(dispatched.containsKey("held.testfile"));
+            FtpObserverCheckpoint checkpoint = new FtpObserverCheckpoint(path);
+            assertTrue(checkpoint.load());
+            assertFalse(checkpoint.getFileMap().values().stream().anyMatch(names -> names.contains("held.testfile")));
+
+            ftpObserver.release("held.testfile", dispatched.get("held.testfile"));
+            Thread.sleep(6 * period);
+            assertTrue(checkpoint.load());
+            assertTrue(checkpoint.getFileMap().values().stream().anyMatch(names -> names.contains("held.testfile")));
+        } finally {
+            ftpObserver.setKeepAlive(false);
+            held.delete();
+        }
+    }
+
+    @Test
+    public void shouldPassWhenNlstFindsFileUploadedAgain() throws Exception {
+        FtpManager ftpManager = FtpManager.getInstance();
+        ftpManager.setServer(server);
+        ftpManager.setUser(username);
+        ftpManager.setPassword(password);
+        ftpManager.setPort(port);
+        long period = 500;
+        Map<Long, String> published = new ConcurrentHashMap<>();
+        FtpObserver ftpObserver = new FtpObserver(ftpManager, "", period, 0L,
+                ftpFile -> published.put(ftpFile.getSize(), ftpFile.getName()));
+        ftpObserver.setListingStrategy(new NlstListingStrategy(100));
+        File uploaded = new File(homeDirectory + "nlst-again.testfile");
+        try {
+            try (FileOutputStream out = new FileOutputStream(uploaded)) {
+                out.write(new byte[10]);
+            }
+            ftpObserver.start();
+            Thread.sleep(4 * period);
+            assertEquals("nlst-again.testfile", published.get(10L));
+
+            try (FileOutputStream out = new FileOutputStream(uploaded)) {
+                out.write(new byte[20]);
+            }
+            Thread.sleep(4 * period);
+            assertEquals("nlst-again.testfile", published.get(20L));
+        } finally {
+            ftpObserver.setKeepAlive(false);
+            uploaded.delete();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.berkgokden.ftp;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class ListingStrategyTest extends EmbeddedFtpServer {
+
+    private FtpManager getFtpManager() {
+        FtpManager ftpManager = FtpManager.getInstance();
+        ftpManager.setServer(server);
+        ftpManager.setUser(username);
+        ftpManager.setPassword(password);
+        ftpManager.setPort(port);
+        return ftpManager;
+    }
+
+    @Test
+    public void shouldPassWhenMlsdDetected() throws Exception {
+        FtpManager ftpManager = getFtpManager();
+        FTPClient client = ftpManager.borrowFtp();
+        try {
+            ListingStrategy strategy = ListingStrategy.detect(client, 100);
+            assertTrue(strategy instanceof MlsdListingStrategy);
+
+            List<FTPFile> files = strategy.list(client, "");
+            FTPFile csv = files.stream()
+                    .filter(file -> "file1.csv".equals(file.getName()))
+                    .findFirst().get();
+            assertTrue(csv.isFile());
+            assertEquals(new File(homeDirectory + "file1.csv").length(), csv.getSize());
+        } finally {
+            ftpManager.returnFtp(client);
+        }
+    }
+
+    @Test
+    public void shouldPassWhenNlstReturnsOnlyNewFiles() throws Exception {
+        FtpManager ftpManager = getFtpManager();
+        FTPClient client = ftpManager.borrowFtp();
+        File newFile = new File(homeDirectory + "nlst.testfile");
+        try {
+            NlstListingStrategy strategy = new NlstListingStrategy(100);
+            List<FTPFile> first = strategy.list(client, "");
+            assertTrue(first.stream().anyMatch(file -> "file1.csv".equals(file.getName())));
+
+            try (FileOutputStream out = new FileOutputStream(newFile)) {
+                out.write(new byte[123]);
+            }
+            List<FTPFile> second = strategy.list(client, "");
+            assertEquals(1, second.size());
+            assertEquals("nlst.testfile", second.get(0).getName());
+            assertEquals(123, second.get(0).getSize());
+            assertTrue(second.get(0).isFile());
+            assertNotNull(second.get(0).getTimestamp());
+
+            assertTrue(strategy.list(client, "").isEmpty());
+        } finally {
+            newFile.delete();
+            ftpManager.returnFtp(client);
+        }
+    }
+
+    @Test
+    public void shouldPassWhenNlstRetriesFailedDetails() throws Exception {
+        AtomicInteger mdtmFailures = new AtomicInteger(1);
+        FTPClient client = new FTPClient() {
+            @Override
+            public FTPFile mdtmFile(String pathname) throws IOException {
+                if (pathname.endsWith("nlst.retryfile") && mdtmFailures.getAndDecrement() > 0) {
+                    return null;
+                }
+                return super.mdtmFile(pathname);
+            }
+        };
+        File newFile = new File(homeDirectory + "nlst.retryfile");
+        try {
+            client.connect(server, port);
+            assertTrue(client.login(username, password));
+            client.enterLocalPassiveMode();
+            NlstListingStrategy strategy = new NlstListingStrategy(100);
+            strategy.list(client, "");
+
+            try (FileOutputStream out = new FileOutputStream(newFile)) {
+                out.write(new byte[12]);
+            }
+            // MDTM fails once, file is not reported
+            assertTrue(strategy.list(client, "").isEmpty());
+            List<FTPFile> retried = strategy.list(client, "");
+            assertEquals(1, retried.size());
+            assertEquals("nlst.retryfile", retried.get(0).getName());
+            assertEquals(12, retried.get(0).getSize());
+            assertTrue(strategy.list(client, "").isEmpty());
+        } finally {
+            newFile.delete();
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void shouldPassWhenListDetectedWithoutSize() throws Exception {
+        FTPClient client = new FTPClient() {
+            @Override
+            public boolean hasFeature(String feature) throws IOException {
+                // server supports MDTM but not MLST and SIZE
+                return "MDTM".equals(feature);
+            }
+        };
+        try {
+            client.connect(server, port);
+            assertTrue(client.login(username, password));
+            client.enterLocalPassiveMode();
+            ListingStrategy strategy = ListingStrategy.detect(client, 100);
+            assertTrue(strategy instanceof ListListingStrategy);
+            assertTrue(strategy.list(client, "").stream()
+                    .anyMatch(file -> "file1.csv".equals(file.getName()) && file.isFile()));
+        } finally {
+            client.disconnect();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.berkgokden.ftp;
+
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class MappedFileInputStreamTest {
+
+    @Test
+    public void shouldPassWhenFileReadAcrossWindows() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(42).nextBytes(data);
+        Path file = Files.createTempFile("mapped", ".bin");
+        Files.write(file, data);
+
+        // a small window forces many remaps
+        try (InputStream in = new MappedFileInputStream(file, 4096, true)) {
+            assertEquals(data[0] & 0xff, in.read());
+            assertEquals(1000, in.skip(1000));
+            byte[] rest = IOUtils.toByteArray(in);
+            assertEquals(data.length - 1001, rest.length);
+            for (int i = 0; i < rest.length; i++) {
+                assertEquals(data[i + 1001], rest[i]);
+            }
+            assertEquals(-1, in.read());
+        }
+        assertFalse(Files.exists(file));
+    }
+}
@@ -0,0 +1,61 @@
+package com.berkgokden.ftp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class SeenFileIndexTest {
+
+    @Test
+    public void shouldPassWhenSeenFilesDetected() throws Exception {
+        SeenFileIndex index = new SeenFileIndex(10);
+        assertTrue(index.add("a", 1000L));
+        assertFalse(index.add("a", 1000L));
+        // same name uploaded again is a new file
+        assertTrue(index.add("a", 2000L));
+        assertTrue(index.contains("a", 2000L));
+        assertFalse(index.contains("a", 1000L));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void shouldPassWhenOldFilesRemoved() throws Exception {
+        SeenFileIndex index = new SeenFileIndex(10);
+        index.add("a", 1000L);
+        index.add("b", 2000L);
+        index.add("c", 3000L);
+
+        assertEquals(2, index.removeOlderThan(3000L));
+        assertFalse(index.contains("a"));
+        assertFalse(index.contains("b"));
+        assertTrue(index.contains("c"));
+        assertEquals(1, index.asMap().size());
+    }
+
+    @Test
+    public void shouldPassWhenIndexIsBounded() throws Exception {
+        SeenFileIndex index = new SeenFileIndex(3);
+        for (int i = 0; i < 10; i++) {
+            index.add(String.valueOf(i), i);
+        }
+        assertEquals(3, index.size());
+        assertTrue(index.contains("9"));
+        assertFalse(index.contains("0"));
+    }
+
+    @Test
+    public void shouldPassWhenSizeChangeDetected() throws Exception {
+        SeenFileIndex index = new SeenFileIndex(10);
+        assertTrue(index.add("a", 1000L, 10L));
+        assertFalse(index.add("a", 1000L, 10L));
+        assertEquals(10L, index.getSize("a"));
+        // same timestamp with a different size is a re-upload
+        assertTrue(index.add("a", 1000L, 20L));
+        assertEquals(20L, index.getSize("a"));
+        assertEquals(1, index.size());
+        assertEquals(-1L, index.getSize("b"));
+    }
+}
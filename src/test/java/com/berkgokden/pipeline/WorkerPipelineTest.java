@@ -0,0 +1,191 @@
+package com.berkgokden.pipeline;
+
+import com.berkgokden.csv.IndexableContent;
+import com.berkgokden.task.Task;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class WorkerPipelineTest {
+
+    @Test
+    public void shouldPassWhenStagesOverlap() throws Exception {
+        int numberOfTasks = 10;
+        long stageTime = 100;
+        AtomicInteger indexed = new AtomicInteger();
+        WorkerPipeline pipeline = new WorkerPipeline(
+                task -> {
+                    sleep(stageTime);
+                    return new ByteArrayInputStream(new byte[0]);
+                },
+                (in, consumer) -> {
+                    sleep(stageTime);
+                    for (int i = 0; i < 5; i++) {
+                        consumer.accept(new IndexableContent());
+                    }
+                },
+                document -> indexed.incrementAndGet(),
+                1, numberOfTasks, 1, 1, 1, 2, 2);
+
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < numberOfTasks; i++) {
+            results.add(pipeline.submit(new Task("default", i + ".csv.bz2")));
+        }
+        for (CompletableFuture<Boolean> result : results) {
+            assertTrue(result.get(10, TimeUnit.SECONDS));
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        pipeline.shutdown();
+
+        assertEquals(5 * numberOfTasks, indexed.get());
+        // one after another it takes 2 x numberOfTasks x stageTime
+        assertTrue("elapsed " + elapsed, elapsed < 1.6 * numberOfTasks * stageTime);
+    }
+
+    @Test
+    public void shouldPassWhenFailedTaskReported() throws Exception {
+        WorkerPipeline pipeline = new WorkerPipeline(
+                task -> new ByteArrayInputStream(new byte[0]),
+                (in, consumer) -> {
+                    consumer.accept(new IndexableContent());
+                    throw new IOException("broken file");
+                },
+                document -> { },
+                1, 2, 1, 1, 1, 2, 1);
+
+        assertFalse(pipeline.submit(new Task("default", "broken.csv.bz2")).get(10, TimeUnit.SECONDS));
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void shouldPassWhenFailedTaskStoppedOnParseThread() throws Exception {
+        AtomicReference<Thread> parseThread = new AtomicReference<>();
+        AtomicReference<Thread> closeThread = new AtomicReference<>();
+        AtomicInteger parsed = new AtomicInteger();
+        WorkerPipeline pipeline = new WorkerPipeline(
+                task -> new ByteArrayInputStream(new byte[0]) {
+                    @Override
+                    public void close() {
+                        closeThread.compareAndSet(null, Thread.currentThread());
+                    }
+                },
+                (in, consumer) -> {
+                    parseThread.set(Thread.currentThread());
+                    for (int i = 0; i < 1000; i++) {
+                        consumer.accept(new IndexableContent());
+                        parsed.incrementAndGet();
+                        sleep(10);
+                    }
+                },
+                document -> {
+                    throw new IllegalStateException("indexer failed");
+                },
+                1, 2, 1, 1, 1, 2, 1);
+
+        assertFalse(pipeline.submit(new Task("default", "failed.csv.bz2")).get(10, TimeUnit.SECONDS));
+        pipeline.shutdown();
+        // parser stops at the next batch and its own thread closes the stream
+        assertTrue("parsed " + parsed.get(), parsed.get() < 1000);
+        assertSame(parseThread.get(), closeThread.get());
+    }
+
+        @Test
+    public void shouldPassWhenBatchesComeFromSeveralThreads() throws Exception {
+        AtomicInteger indexed = new AtomicInteger();
+        WorkerPipeline pipeline = new WorkerPipeline(
+                task -> new ByteArrayInputStream(new byte[0]),
+                (in, batchConsumer) -> {
+                    List<Thread> threads = new ArrayList<>();
+                    for (int i = 0; i < 4; i++) {
+                        Thread thread = new Thread(() -> {
+                            List<IndexableContent> documents = new ArrayList<>();
+                            for (int j = 0; j < 25; j++) {
+                                documents.add(new IndexableContent());
+                            }
+                            batchConsumer.accept(documents);
+                        });
+                        threads.add(thread);
+                        thread.start();
+                    }
+                    for (Thread thread : threads) {
+                        try {
+                            thread.join();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                    }
+                },
+                document -> indexed.incrementAndGet(),
+                1, 2, 1, 1, 2, 2);
+
+        assertTrue(pipeline.submit(new Task("default", "chunked.csv.bz2")).get(10, TimeUnit.SECONDS));
+        pipeline.shutdown();
+        assertEquals(100, indexed.get());
+    }
+
+    @Test
+    public void shouldCompleteWhenDocumentsAreIndexed() throws Exception {
+        List<IndexableContent> buffered = Collections.synchronizedList(new ArrayList<>());
+        WorkerPipeline pipeline = new WorkerPipeline(
+                task -> new ByteArrayInputStream(new byte[0]),
+                (in, consumer) -> {
+                    for (int i = 0; i < 5; i++) {
+                        consumer.accept(new IndexableContent());
+                    }
+                },
+                buffered::add,
+                1, 2, 1, 1, 1, 2, 2);
+        pipeline.setAwaitIndexing(true);
+
+        CompletableFuture<Boolean> indexed = pipeline.submit(new Task("default", "indexed.csv.bz2"));
+        waitFor(buffered, 5);
+        Thread.sleep(100);
+        // documents are handed to the indexer but not indexed yet
+        assertFalse(indexed.isDone());
+        for (IndexableContent document : buffered) {
+            document.indexed(true);
+        }
+        assertTrue(indexed.get(10, TimeUnit.SECONDS));
+
+        buffered.clear();
+        CompletableFuture<Boolean> failed = pipeline.submit(new Task("default", "failed.csv.bz2"));
+        waitFor(buffered, 5);
+        buffered.get(0).indexed(false);
+        for (int i = 1; i < buffered.size(); i++) {
+            assertFalse(failed.isDone());
+            buffered.get(i).indexed(true);
+        }
+        assertFalse(failed.get(10, TimeUnit.SECONDS));
+        pipeline.shutdown();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitFor(List<IndexableContent> documents, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (documents.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, documents.size());
+    }
+}
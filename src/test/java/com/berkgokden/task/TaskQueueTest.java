@@ -4,8 +4,15 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -47,4 +54,89 @@ public class TaskQueueTest {
             assert(set.contains(String.valueOf(i)));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldPassWhenMessagesAreProcessedConcurrently() throws Exception {
+        TaskQueue taskQueue = TaskQueue.getInstance();
+        taskQueue.setHost("localhost");
+        int numberOfMessages = 20;
+        int threads = 4;
+
+        Set<String> set = ConcurrentHashMap.newKeySet();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        taskQueue.registerConsumerFunction(s -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                return false;
+            }
+            running.decrementAndGet();
+            set.add(s);
+            return true;
+        }, 2 * threads, threads);
+
+        for (int i = 0; i < numberOfMessages; i++) {
+            taskQueue.publish(String.valueOf(i));
+        }
+
+        Thread.sleep(3000);
+        assertEquals(numberOfMessages, set.size());
+        assertTrue(maxRunning.get() > 1);
+        assertTrue(maxRunning.get() <= threads);
+    }
+
+    @Test
+    public void shouldPassWhenBatchPublishedMessagesAreReceived() throws Exception {
+        TaskQueue taskQueue = TaskQueue.getInstance();
+        taskQueue.setHost("localhost");
+        int numberOfMessages = 1000;
+
+        Set<String> set = ConcurrentHashMap.newKeySet();
+        taskQueue.registerConsumerFunction(s -> {
+            set.add(s);
+            return true;
+        });
+
+        List<String> messages = new ArrayList<>(numberOfMessages);
+        for (int i = 0; i < numberOfMessages; i++) {
+            messages.add(String.valueOf(i));
+        }
+        taskQueue.publish(messages);
+
+        long deadline = System.currentTimeMillis() + 30000;
+        while (set.size() < numberOfMessages && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(numberOfMessages, set.size());
+    }
+
+    @Test
+    public void shouldPassWhenAsyncProcessedMessagesAreReceived() throws Exception {
+        TaskQueue taskQueue = TaskQueue.getInstance();
+        taskQueue.setHost("localhost");
+        int numberOfMessages = 20;
+
+        Set<String> set = ConcurrentHashMap.newKeySet();
+        Set<String> acked = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        // futures complete on other threads, delivery is acked when they complete
+        taskQueue.registerAsyncConsumerFunction(s -> CompletableFuture.supplyAsync(() -> {
+            set.add(s);
+            return true;
+        }, executor), 4, acked::add);
+
+        for (int i = 0; i < numberOfMessages; i++) {
+            taskQueue.publish(String.valueOf(i));
+        }
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (acked.size() < numberOfMessages && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        executor.shutdown();
+        assertEquals(numberOfMessages, set.size());
+        assertEquals(set, acked);
+    }
+}
@@ -0,0 +1,74 @@
+package com.berkgokden.task;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by developer on 10/17/26.
+ */
+public class TaskTest {
+
+    @Test
+    public void shouldPassWhenEncodedTaskDecodedCorrectly() throws Exception {
+        Task task = new Task("provider1", "/forecasts/2016-07-29/file1.csv.bz2");
+        Task decoded = Task.decode(task.encode(), "/ignored/");
+        assertEquals("provider1", decoded.getSource());
+        assertEquals("/forecasts/2016-07-29/file1.csv.bz2", decoded.getPath());
+        assertEquals(-1L, decoded.getSize());
+        assertEquals(-1L, decoded.getTimeStamp());
+
+        decoded = Task.decode(new Task("provider1", "file1.csv.bz2", 1024L, 1469750400000L).encode(), "");
+        assertEquals(1024L, decoded.getSize());
+        assertEquals(1469750400000L, decoded.getTimeStamp());
+    }
+
+    @Test
+    public void shouldPassWhenPlainFileNameDecodedAsDefaultSource() throws Exception {
+        Task decoded = Task.decode("file1.csv.bz2", "/forecasts/");
+        assertEquals(Task.DEFAULT_SOURCE, decoded.getSource());
+        assertEquals("/forecasts/file1.csv.bz2", decoded.getPath());
+    }
+
+    @Test
+    public void shouldPassWhenLargeFileSplitIntoParts() throws Exception {
+        Task task = new Task("provider1", "file1.csv.bz2", 250L, 1000L);
+        assertEquals(1, task.split(250L).size());
+
+        List<Task> parts = task.split(100L);
+        assertEquals(3, parts.size());
+        Task last = Task.decode(parts.get(2).encode(), "");
+        assertTrue(last.isPart());
+        assertEquals(200L, last.getOffset());
+        assertEquals(50L, last.getLength());
+        assertEquals(2, last.getPart());
+        assertEquals(3, last.getParts());
+
+        SplitTracker tracker = new SplitTracker();
+        tracker.register(parts);
+        assertFalse(tracker.done(last));
+        assertFalse(tracker.done(parts.get(0)));
+        // a part reported twice is counted once
+        assertFalse(tracker.done(last));
+        assertTrue(tracker.done(parts.get(1)));
+        assertEquals(0, tracker.getPendingFiles());
+
+        AtomicInteger completions = new AtomicInteger();
+        tracker.register(parts, completions::incrementAndGet);
+        for (Task part : parts) {
+            tracker.done(part);
+        }
+        tracker.done(last);
+        assertEquals(1, completions.get());
+
+        // a file whose parts could not be published is not completed
+        tracker.register(parts, completions::incrementAndGet);
+        tracker.remove(last);
+        assertFalse(tracker.done(parts.get(0)));
+        assertEquals(0, tracker.getPendingFiles());
+        assertEquals(1, completions.get());
+    }
+}